@@ -0,0 +1,111 @@
+package org.javadrupe.collections;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/** Compact immutable map from names to values.
+ *
+ * Keys and values are held in parallel arrays, indexed by an open-addressed (linear probing) hash
+ * of the key. There is no per-entry object, so the map costs two array slots per entry at a load
+ * factor of at most one half. This is much smaller than a HashMap, and lookups are usually faster
+ * for maps with up to a few dozen keys, especially if the keys are interned.
+ *
+ * Usually created with {@link NameValuePair#toCompactMap()}. Values may be null; keys may not.
+ *
+ * @author Jonathan Essex
+ *
+ * @param <T> Value type.
+ */
+public class CompactMap<T> extends AbstractMap<String,T> {
+
+	private final String[] keys;
+	private final Object[] values;
+	private final int size;
+
+	private static int spread(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+
+	private int indexOf(Object key) {
+		int mask = keys.length - 1;
+		for (int i = spread(key.hashCode()) & mask; ; i = (i + 1) & mask) {
+			String candidate = keys[i];
+			if (candidate == null) return -1;
+			if (candidate == key || candidate.equals(key)) return i;
+		}
+	}
+
+	/** Create a compact map from a collection of name/value pairs.
+	 *
+	 * @param pairs Name/value pairs
+	 * @throws IllegalStateException if two pairs have the same name
+	 */
+	public CompactMap(Collection<? extends NameValuePair<? extends T>> pairs) {
+		int capacity = 2;
+		while (capacity < pairs.size() * 2) capacity <<= 1;
+		this.keys = new String[capacity];
+		this.values = new Object[capacity];
+		this.size = pairs.size();
+		int mask = capacity - 1;
+		for (NameValuePair<? extends T> pair : pairs) {
+			int i = spread(pair.name.hashCode()) & mask;
+			while (keys[i] != null) {
+				if (keys[i].equals(pair.name)) throw new IllegalStateException("Duplicate key " + pair.name);
+				i = (i + 1) & mask;
+			}
+			keys[i] = pair.name;
+			values[i] = pair.value;
+		}
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public T get(Object key) {
+		if (!(key instanceof String)) return null;
+		int i = indexOf(key);
+		return i < 0 ? null : (T)values[i];
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return key instanceof String && indexOf(key) >= 0;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public Set<Map.Entry<String, T>> entrySet() {
+		return new AbstractSet<Map.Entry<String,T>>() {
+			@Override
+			public Iterator<Map.Entry<String, T>> iterator() {
+				return new Iterator<Map.Entry<String,T>>() {
+					private int next = advance(0);
+					private int advance(int from) {
+						while (from < keys.length && keys[from] == null) from++;
+						return from;
+					}
+					@Override
+					public boolean hasNext() { return next < keys.length; }
+					@Override
+					@SuppressWarnings("unchecked")
+					public Map.Entry<String, T> next() {
+						if (next >= keys.length) throw new NoSuchElementException();
+						Map.Entry<String,T> entry = new SimpleImmutableEntry<String,T>(keys[next], (T)values[next]);
+						next = advance(next + 1);
+						return entry;
+					}
+				};
+			}
+			@Override
+			public int size() { return size; }
+		};
+	}
+}
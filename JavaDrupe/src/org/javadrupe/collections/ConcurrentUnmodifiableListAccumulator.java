@@ -0,0 +1,86 @@
+package org.javadrupe.collections;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/** Collects elements added by many threads into an UnmodifiableList.
+ * <p>
+ * Elements are added to one of several stripes, chosen by the adding thread, so that threads
+ * rarely contend with each other. Each stripe is an UnmodifiableList published with compare-and-set;
+ * since an UnmodifiableList never changes, adding an element is a single allocation and a CAS, and
+ * no locks are taken. If the CAS fails because another thread got there first, the adding thread
+ * moves on to the next stripe.
+ * </p><p>
+ * snapshot() joins the current stripes into a single list without copying them and without
+ * stopping the threads that are adding. The order of elements in a snapshot is not defined, even
+ * for elements added by the same thread: a thread which moves to another stripe may have its later
+ * elements placed after its earlier ones.
+ * </p>
+ * @author Jonathan Essex
+ *
+ * @param <E> Element type
+ */
+public class ConcurrentUnmodifiableListAccumulator<E> {
+
+	private final AtomicReferenceArray<UnmodifiableList<E>> stripes;
+	private final int mask;
+
+	private static int toPowerOfTwo(int value) {
+		int result = 1;
+		while (result < value) result <<= 1;
+		return result;
+	}
+
+	/** Add an element.
+	 *
+	 * @param elem Element to add
+	 */
+	public void add(E elem) {
+		int index = (int)Thread.currentThread().getId() & mask;
+		while (true) {
+			UnmodifiableList<E> current = stripes.get(index);
+			if (stripes.compareAndSet(index, current, current.add(elem))) return;
+			index = (index + 1) & mask;
+		}
+	}
+
+	/** Get a list of all the elements added so far.
+	 *
+	 * Elements added while the snapshot is being taken may or may not be included.
+	 *
+	 * @return list of elements
+	 */
+	public UnmodifiableList<E> snapshot() {
+		UnmodifiableList<E> result = UnmodifiableList.empty();
+		for (int i = 0; i < stripes.length(); i++) result = result.join(stripes.get(i));
+		return result;
+	}
+
+	/** Get a list of all the elements added so far, and remove them from the accumulator.
+	 *
+	 * Each element added is returned by exactly one call to drain.
+	 *
+	 * @return list of elements
+	 */
+	public UnmodifiableList<E> drain() {
+		UnmodifiableList<E> result = UnmodifiableList.empty();
+		for (int i = 0; i < stripes.length(); i++) result = result.join(stripes.getAndSet(i, UnmodifiableList.empty()));
+		return result;
+	}
+
+	/** Create an accumulator.
+	 *
+	 * @param stripes Number of stripes (rounded up to a power of two)
+	 */
+	public ConcurrentUnmodifiableListAccumulator(int stripes) {
+		if (stripes <= 0) throw new IllegalArgumentException("stripes must be positive");
+		int size = toPowerOfTwo(stripes);
+		this.stripes = new AtomicReferenceArray<UnmodifiableList<E>>(size);
+		this.mask = size - 1;
+		for (int i = 0; i < size; i++) this.stripes.set(i, UnmodifiableList.empty());
+	}
+
+	/** Create an accumulator with two stripes per processor. */
+	public ConcurrentUnmodifiableListAccumulator() {
+		this(2 * Runtime.getRuntime().availableProcessors());
+	}
+}
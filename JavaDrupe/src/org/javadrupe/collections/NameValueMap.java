@@ -0,0 +1,422 @@
+package org.javadrupe.collections;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/** Persistent (immutable) map from names to values, held as Name/Value pairs.
+ * <p>
+ * Adding or removing a pair with {@link #with(NameValuePair)} or {@link #without(String)} creates
+ * a new map and leaves the old one unchanged. The new map shares all but O(log32 n) of its structure
+ * with the old one, so a pipeline stage which overrides a few properties of a large set costs only
+ * a few small allocations, however large the set.
+ * </p><p>
+ * The map is a hash array mapped trie. Each node holds up to 32 slots, indexed by five bits of the
+ * hash of the name, and each slot is either a pair or a child node for the next five bits. Names
+ * whose hashes are entirely equal share a collision node at the bottom of the trie. Iteration
+ * returns the pairs which were added (no new pairs are created) in no particular order.
+ * </p>
+ * @author Jonathan Essex
+ *
+ * @param <T> Value type.
+ */
+public class NameValueMap<T> implements Iterable<NameValuePair<T>> {
+
+	private static final int BITS = 5;
+	private static final int MASK = (1 << BITS) - 1;
+	/** Deepest possible path: seven levels of bitmap nodes plus a collision node */
+	private static final int MAX_DEPTH = 8;
+
+	private static final NameValueMap<Object> EMPTY = new NameValueMap<Object>(null, 0);
+
+	private static int hash(String name) {
+		int h = name.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	private static abstract class Node<T> {
+		/** Slots of this node; each is a NameValuePair or a Node */
+		abstract Object[] slots();
+		abstract NameValuePair<T> get(String name, int hash, int shift);
+		/** @param added set to true if no pair with the same name was present
+		 * @return this node if pair is already present */
+		abstract Node<T> with(NameValuePair<T> pair, int hash, int shift, boolean[] added);
+		/** @return this node if name is not present, null if the node is left empty */
+		abstract Node<T> without(String name, int hash, int shift);
+
+		/** Get the only pair in this node, if it holds exactly one pair and no children */
+		@SuppressWarnings("unchecked")
+		NameValuePair<T> single() {
+			Object[] slots = slots();
+			return slots.length == 1 && slots[0] instanceof NameValuePair ? (NameValuePair<T>)slots[0] : null;
+		}
+	}
+
+	private static Object[] insert(Object[] slots, int index, Object value) {
+		Object[] result = new Object[slots.length + 1];
+		System.arraycopy(slots, 0, result, 0, index);
+		result[index] = value;
+		System.arraycopy(slots, index, result, index + 1, slots.length - index);
+		return result;
+	}
+
+	private static Object[] replace(Object[] slots, int index, Object value) {
+		Object[] result = slots.clone();
+		result[index] = value;
+		return result;
+	}
+
+	private static Object[] remove(Object[] slots, int index) {
+		Object[] result = new Object[slots.length - 1];
+		System.arraycopy(slots, 0, result, 0, index);
+		System.arraycopy(slots, index + 1, result, index, result.length - index);
+		return result;
+	}
+
+	/** Create the smallest node holding two pairs with different names */
+	private static <T> Node<T> merge(NameValuePair<T> a, int hash_a, NameValuePair<T> b, int hash_b, int shift) {
+		if (shift >= Integer.SIZE) return new CollisionNode<T>(new Object[] { a, b });
+		int index_a = (hash_a >>> shift) & MASK;
+		int index_b = (hash_b >>> shift) & MASK;
+		if (index_a == index_b) return new BitmapNode<T>(1 << index_a, new Object[] { merge(a, hash_a, b, hash_b, shift + BITS) });
+		return new BitmapNode<T>((1 << index_a) | (1 << index_b), index_a < index_b ? new Object[] { a, b } : new Object[] { b, a });
+	}
+
+	private static class BitmapNode<T> extends Node<T> {
+		private final int bitmap;
+		private final Object[] slots;
+
+		BitmapNode(int bitmap, Object[] slots) {
+			this.bitmap = bitmap;
+			this.slots = slots;
+		}
+
+		@Override
+		Object[] slots() {
+			return slots;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		NameValuePair<T> get(String name, int hash, int shift) {
+			int bit = 1 << ((hash >>> shift) & MASK);
+			if ((bitmap & bit) == 0) return null;
+			Object slot = slots[Integer.bitCount(bitmap & (bit - 1))];
+			if (slot instanceof Node) return ((Node<T>)slot).get(name, hash, shift + BITS);
+			NameValuePair<T> pair = (NameValuePair<T>)slot;
+			return pair.name.equals(name) ? pair : null;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		Node<T> with(NameValuePair<T> pair, int hash, int shift, boolean[] added) {
+			int bit = 1 << ((hash >>> shift) & MASK);
+			int index = Integer.bitCount(bitmap & (bit - 1));
+			if ((bitmap & bit) == 0) {
+				added[0] = true;
+				return new BitmapNode<T>(bitmap | bit, insert(slots, index, pair));
+			}
+			Object slot = slots[index];
+			if (slot instanceof Node) {
+				Node<T> child = (Node<T>)slot;
+				Node<T> updated = child.with(pair, hash, shift + BITS, added);
+				return updated == child ? this : new BitmapNode<T>(bitmap, replace(slots, index, updated));
+			}
+			NameValuePair<T> existing = (NameValuePair<T>)slot;
+			if (existing.name.equals(pair.name)) 
+				return existing.equals(pair) ? this : new BitmapNode<T>(bitmap, replace(slots, index, pair));
+			added[0] = true;
+			return new BitmapNode<T>(bitmap, replace(slots, index, merge(existing, hash(existing.name), pair, hash, shift + BITS)));
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		Node<T> without(String name, int hash, int shift) {
+			int bit = 1 << ((hash >>> shift) & MASK);
+			if ((bitmap & bit) == 0) return this;
+			int index = Integer.bitCount(bitmap & (bit - 1));
+			Object slot = slots[index];
+			if (slot instanceof Node) {
+				Node<T> child = (Node<T>)slot;
+				Node<T> updated = child.without(name, hash, shift + BITS);
+				if (updated == child) return this;
+				if (updated == null) return slots.length == 1 ? null : new BitmapNode<T>(bitmap & ~bit, remove(slots, index));
+				// Pull a lone pair up into this node, so the trie stays as shallow as possible
+				NameValuePair<T> single = updated.single();
+				return new BitmapNode<T>(bitmap, replace(slots, index, single == null ? updated : single));
+			}
+			if (!((NameValuePair<T>)slot).name.equals(name)) return this;
+			return slots.length == 1 ? null : new BitmapNode<T>(bitmap & ~bit, remove(slots, index));
+		}
+	}
+
+	/** Node holding pairs whose names have identical hashes */
+	private static class CollisionNode<T> extends Node<T> {
+		private final Object[] pairs;
+
+		CollisionNode(Object[] pairs) {
+			this.pairs = pairs;
+		}
+
+		@Override
+		Object[] slots() {
+			return pairs;
+		}
+
+		private int indexOf(String name) {
+			for (int i = 0; i < pairs.length; i++)
+				if (((NameValuePair<?>)pairs[i]).name.equals(name)) return i;
+			return -1;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		NameValuePair<T> get(String name, int hash, int shift) {
+			int index = indexOf(name);
+			return index < 0 ? null : (NameValuePair<T>)pairs[index];
+		}
+
+		@Override
+		Node<T> with(NameValuePair<T> pair, int hash, int shift, boolean[] added) {
+			int index = indexOf(pair.name);
+			if (index < 0) {
+				added[0] = true;
+				return new CollisionNode<T>(insert(pairs, pairs.length, pair));
+			}
+			return pairs[index].equals(pair) ? this : new CollisionNode<T>(replace(pairs, index, pair));
+		}
+
+		@Override
+		Node<T> without(String name, int hash, int shift) {
+			int index = indexOf(name);
+			if (index < 0) return this;
+			return pairs.length == 1 ? null : new CollisionNode<T>(remove(pairs, index));
+		}
+	}
+
+	private static class IteratorImpl<T> implements Iterator<NameValuePair<T>> {
+		private final Object[][] stack = new Object[MAX_DEPTH][];
+		private final int[] positions = new int[MAX_DEPTH];
+		private int depth;
+		private NameValuePair<T> next;
+
+		@SuppressWarnings("unchecked")
+		private void advance() {
+			next = null;
+			while (depth >= 0) {
+				Object[] slots = stack[depth];
+				if (positions[depth] == slots.length) {
+					depth--;
+					continue;
+				}
+				Object slot = slots[positions[depth]++];
+				if (slot instanceof Node) {
+					depth++;
+					stack[depth] = ((Node<T>)slot).slots();
+					positions[depth] = 0;
+				} else {
+					next = (NameValuePair<T>)slot;
+					return;
+				}
+			}
+		}
+
+		IteratorImpl(Node<T> root) {
+			if (root == null) {
+				depth = -1;
+			} else {
+				stack[0] = root.slots();
+				depth = 0;
+				advance();
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public NameValuePair<T> next() {
+			if (next == null) throw new NoSuchElementException();
+			NameValuePair<T> result = next;
+			advance();
+			return result;
+		}
+	}
+
+	private final Node<T> root;
+	private final int size;
+
+	private NameValueMap(Node<T> root, int size) {
+		this.root = root;
+		this.size = size;
+	}
+
+	/** Get an empty map. */
+	@SuppressWarnings("unchecked")
+	public static <T> NameValueMap<T> empty() {
+		return (NameValueMap<T>)EMPTY;
+	}
+
+	/** Create a map from a sequence of pairs.
+	 * 
+	 * Works with any Iterable, including an UnmodifiableList of pairs. Where several pairs have the
+	 * same name, the last one wins.
+	 * 
+	 * @param pairs Pairs to put in the map
+	 * @return a map containing the pairs
+	 */
+	public static <T> NameValueMap<T> of(Iterable<? extends NameValuePair<T>> pairs) {
+		NameValueMap<T> result = empty();
+		for (NameValuePair<T> pair : pairs) result = result.with(pair);
+		return result;
+	}
+
+	/** Get the pair with the given name.
+	 * 
+	 * @param name Name to look up
+	 * @return the pair, or null if there is no pair with that name
+	 */
+	public NameValuePair<T> getPair(String name) {
+		return root == null ? null : root.get(name, hash(name), 0);
+	}
+
+	/** Get the value with the given name.
+	 * 
+	 * @param name Name to look up
+	 * @return the value, or null if there is no pair with that name (or its value is null)
+	 */
+	public T get(String name) {
+		NameValuePair<T> pair = getPair(name);
+		return pair == null ? null : pair.value;
+	}
+
+	/** Check whether there is a pair with the given name */
+	public boolean containsName(String name) {
+		return getPair(name) != null;
+	}
+
+	/** Create a new map containing all pairs in this map plus <code>pair</code>.
+	 * 
+	 * Replaces any pair with the same name.
+	 * 
+	 * @param pair Pair to add
+	 * @return the new map (or this map, if it already contains an equal pair)
+	 */
+	public NameValueMap<T> with(NameValuePair<T> pair) {
+		int hash = hash(pair.name);
+		if (root == null) return new NameValueMap<T>(new BitmapNode<T>(1 << (hash & MASK), new Object[] { pair }), 1);
+		boolean[] added = { false };
+		Node<T> updated = root.with(pair, hash, 0, added);
+		if (updated == root) return this;
+		return new NameValueMap<T>(updated, added[0] ? size + 1 : size);
+	}
+
+	/** Create a new map containing all pairs in this map plus a pair with the given name and value.
+	 * 
+	 * @param name Name
+	 * @param value Value
+	 * @return the new map
+	 */
+	public NameValueMap<T> with(String name, T value) {
+		return with(NameValuePair.of(name, value));
+	}
+
+	/** Create a new map containing all pairs in this map plus all pairs in another.
+	 * 
+	 * Where both maps have a pair with the same name, the pair from the other map wins.
+	 * 
+	 * @param other Pairs to add
+	 * @return the new map
+	 */
+	public NameValueMap<T> withAll(Iterable<? extends NameValuePair<T>> other) {
+		NameValueMap<T> result = this;
+		for (NameValuePair<T> pair : other) result = result.with(pair);
+		return result;
+	}
+
+	/** Create a new map containing all pairs in this map except the one with the given name.
+	 * 
+	 * @param name Name of pair to remove
+	 * @return the new map (or this map, if there is no pair with that name)
+	 */
+	public NameValueMap<T> without(String name) {
+		if (root == null) return this;
+		Node<T> updated = root.without(name, hash(name), 0);
+		if (updated == root) return this;
+		return updated == null ? empty() : new NameValueMap<T>(updated, size - 1);
+	}
+
+	/** Number of pairs in the map */
+	public int size() {
+		return size;
+	}
+
+	/** is this map empty? */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	@Override
+	public Iterator<NameValuePair<T>> iterator() {
+		return new IteratorImpl<T>(root);
+	}
+
+	/** get stream */
+	public Stream<NameValuePair<T>> stream() {
+		return StreamSupport.stream(spliterator(), false);
+	}
+
+	/** Get the pairs in this map as an unmodifiable list (in no particular order). */
+	public UnmodifiableList<NameValuePair<T>> toList() {
+		UnmodifiableList<NameValuePair<T>> result = UnmodifiableList.empty();
+		for (NameValuePair<T> pair : this) result = result.add(pair);
+		return result;
+	}
+
+	/** Get the pairs in this map as an immutable {@link CompactMap} from name to value. */
+	public Map<String,T> toMap() {
+		return stream().collect(NameValuePair.toCompactMap());
+	}
+
+	/** Equality operator
+	 * 
+	 * @return true if other is a NameValueMap containing equal pairs.
+	 */
+	@Override
+	public boolean equals(Object other) {
+		if (this == other) return true;
+		if (!(other instanceof NameValueMap)) return false;
+		NameValueMap<?> map = (NameValueMap<?>)other;
+		if (map.size != size) return false;
+		for (NameValuePair<T> pair : this) {
+			NameValuePair<?> other_pair = map.getPair(pair.name);
+			if (other_pair == null || !other_pair.equals(pair)) return false;
+		}
+		return true;
+	}
+
+	/** Hash code 
+	 * 
+	 * @return sum of the hash codes of the pairs.
+	 */
+	@Override
+	public int hashCode() {
+		int result = 0;
+		for (NameValuePair<T> pair : this) result += pair.hashCode();
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder("[");
+		for (NameValuePair<T> pair : this) {
+			if (result.length() > 1) result.append(", ");
+			result.append(pair);
+		}
+		return result.append("]").toString();
+	}
+}
@@ -1,5 +1,7 @@
 package org.javadrupe.collections;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.stream.Collector;
 import java.util.stream.Collectors;
@@ -8,6 +10,9 @@ import java.util.stream.Collectors;
  * 
  * Often used in place of a Map.Entry.
  * 
+ * The hash code is computed once, on construction, so values should not be mutated in a way 
+ * which changes their hash code once they are placed in a pair.
+ * 
  * @author Jonathan Essex
  *
  * @param <T> Value type.
@@ -18,6 +23,8 @@ public class NameValuePair<T>  {
 	public final String name;
 	/** The value */
 	public final T value;
+	/** Cached hash code */
+	private final int hash;
 	
 	/** Construct a new name/value pair.
 	 * 
@@ -27,6 +34,7 @@ public class NameValuePair<T>  {
 	public NameValuePair(String name, T value) {
 		this.name = name;
 		this.value = value;
+		this.hash = name.hashCode() * 13 ^ (value == null ? 0 : value.hashCode());
 	}
 	
 	/** Construct a new name/value pair.
@@ -41,6 +49,20 @@ public class NameValuePair<T>  {
 		return new NameValuePair<T>(name, value);
 	}
 	
+	/** Construct a new name/value pair with an interned name.
+	 * 
+	 * Useful where very many pairs share a small set of names; the names are then stored only once,
+	 * and name comparisons in equals and in maps built with {@link #toCompactMap()} usually succeed
+	 * on the identity check.
+	 * 
+	 * @param name
+	 * @param value
+	 * @return a Name value pair.
+	 */
+	public static <T> NameValuePair<T> ofInterned(String name, T value) {
+		return new NameValuePair<T>(name.intern(), value);
+	}
+	
 	/** String converter.
 	 * 
 	 * @return String in format: { "name" : value } 
@@ -58,6 +80,36 @@ public class NameValuePair<T>  {
 		return Collectors.toMap(pair -> pair.name, pair -> pair.value );
 	}
 	
+	/** Collect Name/Value pairs into a compact immutable map.
+	 * 
+	 * The resulting map is a {@link CompactMap}, which uses far less memory than a HashMap and
+	 * is faster for lookups when there are few keys. Values may be null.
+	 * 
+	 * @return A collector outputting an immutable map from name to value for a stream of name/value pairs.
+	 * @throws IllegalStateException (when collecting) if two pairs have the same name
+	 */
+	public static <T> Collector<NameValuePair<T>, ?, Map<String,T>> toCompactMap() {
+		return Collector.<NameValuePair<T>, List<NameValuePair<T>>, Map<String,T>>of(
+			ArrayList::new, 
+			List::add, 
+			(a, b) -> { a.addAll(b); return a; }, 
+			CompactMap::new);
+	}
+	
+	/** Collect Name/Value pairs into a persistent {@link NameValueMap}.
+	 * 
+	 * Where several pairs have the same name, the last one collected wins.
+	 * 
+	 * @return A collector outputting a persistent map for a stream of name/value pairs.
+	 */
+	public static <T> Collector<NameValuePair<T>, ?, NameValueMap<T>> toNameValueMap() {
+		return Collector.<NameValuePair<T>, List<NameValuePair<T>>, NameValueMap<T>>of(
+			ArrayList::new, 
+			List::add, 
+			(a, b) -> { a.addAll(b); return a; }, 
+			NameValueMap::of);
+	}
+	
 	/** Equality operator
 	 * 
 	 * Names must be non-null. Values may be null.
@@ -65,7 +117,8 @@ public class NameValuePair<T>  {
 	 * @param other
 	 * @return true if name and value are both equal, or if names are equal and values are both null.
 	 */
-	boolean equals(NameValuePair<T> other) {
+	boolean equals(NameValuePair<?> other) {
+		if (this.hash != other.hash) return false;
 		if (this.name.equals(other.name)) {
 			if (this.value == null && other.value == null) return true;
 			if (this.value != null && other.value != null) return this.value.equals(other.value);
@@ -86,9 +139,9 @@ public class NameValuePair<T>  {
 	
 	/** Hash code 
 	 * 
-	 * @return has code based on hashes of both name and value.
+	 * @return hash code based on hashes of both name and value (computed on construction).
 	 */
 	public int hashCode() {
-		return name.hashCode() * 13 ^ value.hashCode();
+		return hash;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,61 @@
+package org.javadrupe.collections.test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.javadrupe.collections.ConcurrentUnmodifiableListAccumulator;
+import org.javadrupe.collections.UnmodifiableList;
+import org.junit.Test;
+
+public class TestConcurrentUnmodifiableListAccumulator {
+
+	private static Set<Integer> toSet(UnmodifiableList<Integer> list) {
+		Set<Integer> result = new HashSet<Integer>();
+		for (Integer elem : list) assertTrue(result.add(elem));
+		return result;
+	}
+
+	@Test
+	public void testSingleThread() {
+		ConcurrentUnmodifiableListAccumulator<Integer> accumulator = new ConcurrentUnmodifiableListAccumulator<Integer>(1);
+		assertTrue(accumulator.snapshot().isEmpty());
+		accumulator.add(1);
+		accumulator.add(2);
+		UnmodifiableList<Integer> snapshot = accumulator.snapshot();
+		accumulator.add(3);
+		assertEquals(2, (int)snapshot.head());
+		assertEquals(1, (int)snapshot.tail().head());
+		assertTrue(snapshot.tail().tail().isEmpty());
+		assertEquals(3, toSet(accumulator.drain()).size());
+		assertTrue(accumulator.snapshot().isEmpty());
+	}
+
+	@Test
+	public void testManyThreads() throws Exception {
+		int threads = 8;
+		int per_thread = 10000;
+		ConcurrentUnmodifiableListAccumulator<Integer> accumulator = new ConcurrentUnmodifiableListAccumulator<Integer>(4);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<?>> tasks = new ArrayList<Future<?>>();
+			for (int t = 0; t < threads; t++) {
+				int base = t * per_thread;
+				tasks.add(executor.submit(() -> { for (int i = 0; i < per_thread; i++) accumulator.add(base + i); }));
+			}
+			for (Future<?> task : tasks) task.get();
+		} finally {
+			executor.shutdown();
+		}
+		Set<Integer> all = toSet(accumulator.snapshot());
+		assertEquals(threads * per_thread, all.size());
+		assertTrue(all.contains(0));
+		assertTrue(all.contains(threads * per_thread - 1));
+	}
+}
@@ -0,0 +1,95 @@
+package org.javadrupe.collections.test;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.javadrupe.collections.NameValueMap;
+import org.javadrupe.collections.NameValuePair;
+import org.javadrupe.collections.UnmodifiableList;
+import org.junit.Test;
+
+public class TestNameValueMap {
+
+	@Test
+	public void testWithAndGet() {
+		NameValueMap<Integer> empty = NameValueMap.empty();
+		NameValueMap<Integer> map = empty.with("a", 1).with("b", 2);
+		assertEquals(2, map.size());
+		assertEquals(1, (int)map.get("a"));
+		assertEquals(2, (int)map.get("b"));
+		assertNull(map.get("c"));
+		NameValueMap<Integer> overridden = map.with("a", 3);
+		assertEquals(2, overridden.size());
+		assertEquals(3, (int)overridden.get("a"));
+		assertEquals(1, (int)map.get("a"));
+		assertSame(map, map.with("b", 2));
+		assertTrue(empty.isEmpty());
+	}
+
+	@Test
+	public void testWithout() {
+		NameValueMap<Integer> map = NameValueMap.<Integer>empty().with("a", 1).with("b", 2);
+		NameValueMap<Integer> removed = map.without("a");
+		assertEquals(1, removed.size());
+		assertFalse(removed.containsName("a"));
+		assertTrue(map.containsName("a"));
+		assertSame(removed, removed.without("a"));
+		assertTrue(removed.without("b").isEmpty());
+	}
+
+	@Test
+	public void testCollisions() {
+		// "Aa" and "BB" have the same hash code
+		NameValueMap<Integer> map = NameValueMap.<Integer>empty().with("Aa", 1).with("BB", 2).with("AaAa", 3).with("BBBB", 4);
+		assertEquals(4, map.size());
+		assertEquals(1, (int)map.get("Aa"));
+		assertEquals(2, (int)map.get("BB"));
+		assertEquals(4, (int)map.get("BBBB"));
+		NameValueMap<Integer> removed = map.without("Aa");
+		assertNull(removed.get("Aa"));
+		assertEquals(2, (int)removed.get("BB"));
+		assertEquals(3, removed.size());
+	}
+
+	@Test
+	public void testManyPairs() {
+		Map<String,Integer> expected = new HashMap<String,Integer>();
+		NameValueMap<Integer> map = NameValueMap.empty();
+		for (int i = 0; i < 10000; i++) {
+			map = map.with("name" + i, i);
+			expected.put("name" + i, i);
+		}
+		for (int i = 0; i < 10000; i += 2) {
+			map = map.without("name" + i);
+			expected.remove("name" + i);
+		}
+		assertEquals(expected.size(), map.size());
+		int count = 0;
+		for (NameValuePair<Integer> pair : map) {
+			assertEquals(expected.get(pair.name), pair.value);
+			count++;
+		}
+		assertEquals(expected.size(), count);
+		assertEquals(expected, map.toMap());
+	}
+
+	@Test
+	public void testListRoundTrip() {
+		UnmodifiableList<NameValuePair<Integer>> list = UnmodifiableList.of(NameValuePair.of("a", 1), NameValuePair.of("b", 2), NameValuePair.of("a", 3));
+		NameValueMap<Integer> map = NameValueMap.of(list);
+		assertEquals(2, map.size());
+		assertEquals(3, (int)map.get("a"));
+		assertEquals(map, NameValueMap.of(map.toList()));
+		assertEquals(map.hashCode(), NameValueMap.of(map.toList()).hashCode());
+	}
+
+	@Test
+	public void testCollector() {
+		NameValueMap<Integer> map = Stream.of(NameValuePair.of("a", 1), NameValuePair.of("b", 2)).collect(NameValuePair.toNameValueMap());
+		assertEquals(2, map.size());
+		assertEquals(2, (int)map.get("b"));
+	}
+}
@@ -0,0 +1,47 @@
+package org.javadrupe.collections.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.javadrupe.collections.NameValuePair;
+import org.junit.Test;
+
+public class TestNameValuePair {
+
+	@Test
+	public void testEqualsAndHashCode() {
+		assertEquals(NameValuePair.of("a", 1), NameValuePair.of("a", 1));
+		assertEquals(NameValuePair.of("a", 1).hashCode(), NameValuePair.of("a", 1).hashCode());
+		assertFalse(NameValuePair.of("a", 1).equals(NameValuePair.of("a", 2)));
+	}
+
+	@Test
+	public void testNullValue() {
+		assertEquals(NameValuePair.of("a", null), NameValuePair.of("a", null));
+		assertEquals(NameValuePair.of("a", null).hashCode(), NameValuePair.of("a", null).hashCode());
+	}
+
+	@Test
+	public void testInterned() {
+		assertSame("name", NameValuePair.ofInterned(new String("name"), 1).name);
+	}
+
+	@Test
+	public void testCompactMap() {
+		Map<String,Integer> map = Stream.of(NameValuePair.of("a", 1), NameValuePair.of("b", 2), NameValuePair.of("c", (Integer)null))
+			.collect(NameValuePair.toCompactMap());
+		assertEquals(3, map.size());
+		assertEquals(Integer.valueOf(2), map.get("b"));
+		assertTrue(map.containsKey("c"));
+		assertNull(map.get("c"));
+		assertFalse(map.containsKey("d"));
+		assertEquals(3, map.entrySet().stream().count());
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void testCompactMapDuplicateKey() {
+		Stream.of(NameValuePair.of("a", 1), NameValuePair.of("a", 2)).collect(NameValuePair.toCompactMap());
+	}
+}
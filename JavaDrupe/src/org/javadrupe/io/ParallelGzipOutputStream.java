@@ -0,0 +1,173 @@
+package org.javadrupe.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/** Output stream which gzips its output using several threads.
+ * <p>
+ * Written bytes are split into blocks. Each block is compressed as a separate gzip member by a
+ * task on an executor, and the members are written to the underlying stream in order. A sequence
+ * of gzip members is itself a valid gzip file (RFC 1952), which gzip, GZIPInputStream and other
+ * standard tools decompress to the concatenated content. Compression ratio is slightly worse than
+ * a single member, since each block starts with an empty dictionary, but with large enough blocks
+ * the difference is small.
+ * </p><p>
+ * Typically used as the destination of a transformed document, e.g.
+ * <code>handler.setResult(new StreamResult(new ParallelGzipOutputStream(out, executor)))</code>.
+ * The stream must be closed to write the final block. Not safe for use by several writing threads.
+ * </p>
+ * @author Jonathan Essex
+ *
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+
+	public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+
+	private static final byte[] HEADER = { 0x1f, (byte)0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte)0xff };
+
+	private final OutputStream out;
+	private final ExecutorService executor;
+	private final int level;
+	private final int max_pending;
+	private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+	private byte[] block;
+	private int length = 0;
+	private boolean written = false;
+	private boolean closed = false;
+
+	private static void writeIntLE(ByteArrayOutputStream out, int value) {
+		out.write(value);
+		out.write(value >>> 8);
+		out.write(value >>> 16);
+		out.write(value >>> 24);
+	}
+
+	/** Compress a block as a complete gzip member */
+	private static byte[] compress(byte[] block, int length, int level) {
+		ByteArrayOutputStream member = new ByteArrayOutputStream(length / 2 + 64);
+		member.write(HEADER, 0, HEADER.length);
+		Deflater deflater = new Deflater(level, true);
+		try {
+			deflater.setInput(block, 0, length);
+			deflater.finish();
+			byte[] buffer = new byte[Math.min(Math.max(length, 512), 65536)];
+			while (!deflater.finished()) {
+				int count = deflater.deflate(buffer);
+				member.write(buffer, 0, count);
+			}
+		} finally {
+			deflater.end();
+		}
+		CRC32 crc = new CRC32();
+		crc.update(block, 0, length);
+		writeIntLE(member, (int)crc.getValue());
+		writeIntLE(member, length);
+		return member.toByteArray();
+	}
+
+	private void writeHead() throws IOException {
+		try {
+			out.write(pending.remove().get());
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}
+	}
+
+	/** Submit the current block for compression, writing completed blocks if too many are pending */
+	private void submitBlock() throws IOException {
+		byte[] full = block;
+		int full_length = length;
+		pending.add(executor.submit(() -> compress(full, full_length, level)));
+		written = true;
+		block = new byte[block.length];
+		length = 0;
+		while (pending.size() > max_pending || (!pending.isEmpty() && pending.peek().isDone())) writeHead();
+	}
+
+	private void ensureOpen() throws IOException {
+		if (closed) throw new IOException("Stream closed");
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		ensureOpen();
+		block[length++] = (byte)b;
+		if (length == block.length) submitBlock();
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		ensureOpen();
+		while (len > 0) {
+			int count = Math.min(len, block.length - length);
+			System.arraycopy(b, off, block, length, count);
+			length += count;
+			off += count;
+			len -= count;
+			if (length == block.length) submitBlock();
+		}
+	}
+
+	/** Compress and write everything written so far.
+	 *
+	 * Ends the current block early, so frequent flushing makes compression worse.
+	 */
+	@Override
+	public void flush() throws IOException {
+		ensureOpen();
+		if (length > 0) submitBlock();
+		while (!pending.isEmpty()) writeHead();
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) return;
+		try {
+			// An empty stream is still written as one (empty) member, so the output is valid gzip
+			if (length > 0 || !written) submitBlock();
+			while (!pending.isEmpty()) writeHead();
+		} finally {
+			closed = true;
+			block = null;
+			for (Future<byte[]> task : pending) task.cancel(false);
+			out.close();
+		}
+	}
+
+	/** Create a stream.
+	 *
+	 * @param out Stream to which compressed output is written
+	 * @param executor Executor on which blocks are compressed
+	 * @param block_size Number of bytes in each block
+	 * @param level Compression level (see Deflater)
+	 * @param max_pending Maximum number of blocks compressing or awaiting output at any one time
+	 */
+	public ParallelGzipOutputStream(OutputStream out, ExecutorService executor, int block_size, int level, int max_pending) {
+		if (block_size <= 0 || max_pending <= 0) throw new IllegalArgumentException("block_size and max_pending must be positive");
+		this.out = out;
+		this.executor = executor;
+		this.block = new byte[block_size];
+		this.level = level;
+		this.max_pending = max_pending;
+	}
+
+	/** Create a stream with 1MB blocks, default compression, and up to two blocks pending per processor.
+	 *
+	 * @param out Stream to which compressed output is written
+	 * @param executor Executor on which blocks are compressed
+	 */
+	public ParallelGzipOutputStream(OutputStream out, ExecutorService executor) {
+		this(out, executor, DEFAULT_BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION, 2 * Runtime.getRuntime().availableProcessors());
+	}
+}
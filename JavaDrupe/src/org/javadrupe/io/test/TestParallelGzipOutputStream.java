@@ -0,0 +1,97 @@
+package org.javadrupe.io.test;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamResult;
+
+import org.javadrupe.io.ParallelGzipOutputStream;
+import org.javadrupe.xml.TransformerWriter;
+
+import org.junit.Test;
+
+public class TestParallelGzipOutputStream {
+
+	private static SAXTransformerFactory TRANSFORMER_FACTORY = (SAXTransformerFactory)TransformerFactory.newInstance();
+
+	private static byte[] gunzip(byte[] data) throws IOException {
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+			byte[] buffer = new byte[4096];
+			for (int count = in.read(buffer); count >= 0; count = in.read(buffer)) result.write(buffer, 0, count);
+		}
+		return result.toByteArray();
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			byte[] data = new byte[300000];
+			for (int i = 0; i < data.length; i++) data[i] = (byte)("abcdefghij".charAt(i % 10) + (i / 1000) % 3);
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+			try (ParallelGzipOutputStream out = new ParallelGzipOutputStream(compressed, executor, 4096, Deflater.BEST_SPEED, 4)) {
+				out.write(data, 0, 1000);
+				out.write(data[1000]);
+				out.write(data, 1001, data.length - 1001);
+			}
+			assertArrayEquals(data, gunzip(compressed.toByteArray()));
+			assertTrue(compressed.size() < data.length / 4);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testEmpty() throws IOException {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+			new ParallelGzipOutputStream(compressed, executor).close();
+			assertEquals(0, gunzip(compressed.toByteArray()).length);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testTransformedDocument() throws IOException, TransformerConfigurationException, XMLStreamException {
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+			TransformerHandler handler = TRANSFORMER_FACTORY.newTransformerHandler();
+			ParallelGzipOutputStream out = new ParallelGzipOutputStream(compressed, executor, 1024, Deflater.DEFAULT_COMPRESSION, 2);
+			handler.setResult(new StreamResult(out));
+			TransformerWriter writer = new TransformerWriter(handler);
+			writer.writeStartDocument();
+			writer.writeStartElement("document");
+			for (int i = 0; i < 1000; i++) {
+				writer.writeStartElement("para");
+				writer.writeCharacters("text " + i);
+				writer.writeEndElement();
+			}
+			writer.writeEndElement();
+			writer.writeEndDocument();
+			writer.close();
+			out.close();
+			String document = new String(gunzip(compressed.toByteArray()), "UTF-8");
+			assertTrue(document.indexOf("<para>text 999</para></document>") >= 0);
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
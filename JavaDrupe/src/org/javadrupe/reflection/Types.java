@@ -1,11 +1,20 @@
 package org.javadrupe.reflection;
 
+import java.awt.Graphics2D;
 import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.net.URI;
+import java.util.Base64;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
@@ -13,10 +22,16 @@ import java.util.UUID;
 import java.util.stream.Collectors;
 
 import javax.activation.DataHandler;
+import javax.imageio.ImageIO;
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
 import javax.xml.datatype.Duration;
 import javax.xml.datatype.XMLGregorianCalendar;
 import javax.xml.namespace.QName;
 import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamResult;
 
 public class Types {
 	
@@ -33,6 +48,14 @@ public class Types {
 	  private static final Map<QName, Class<?>> XML_TO_JAVA_PRIMITIVE;
 	  private static final HashMap<Class<?>, QName> JAVA_TO_XML = new HashMap<Class<?>,QName>();
 	  private static final HashMap<QName, Class<?>> XML_TO_JAVA = new HashMap<QName, Class<?>>();
+	  /** DatatypeFactory is not documented as thread safe, so each thread gets its own. */
+	  private static final ThreadLocal<DatatypeFactory> DATATYPE_FACTORY = ThreadLocal.withInitial(() -> {
+		  try {
+			  return DatatypeFactory.newInstance();
+		  } catch (DatatypeConfigurationException e) {
+			  throw new IllegalStateException(e);
+		  }
+	  });
 
 	  public static final QName QN_BOOLEAN = toQName("boolean");
 	  public static final QName QN_BYTE = toQName("byte") ;
@@ -157,6 +180,32 @@ public class Types {
 	  }
 	  
 	  
+	  /** Find XML schema type for a given class or any of its supertypes.
+	   * 
+	   * Unlike {@link #getSchemaType(Class)}, which needs an exact match, this also finds the schema
+	   * type of subclasses and implementations, such as GregorianCalendar, java.sql.Timestamp or the
+	   * implementation classes of XMLGregorianCalendar and Duration. Superclasses are searched before
+	   * interfaces.
+	   * 
+	   * @param clazz
+	   * @return QName of schema type.
+	   */
+	  public static Optional<QName> findSchemaType(Class<?> clazz) {
+		  Optional<QName> name = getSchemaType(clazz);
+		  if (name.isPresent()) return name;
+		  for (Class<?> superclass = clazz.getSuperclass(); superclass != null && superclass != Object.class; superclass = superclass.getSuperclass()) {
+			  QName type = JAVA_TO_XML.get(superclass);
+			  if (type != null) return Optional.of(type);
+		  }
+		  for (Class<?> type = clazz; type != null; type = type.getSuperclass()) {
+			  for (Class<?> implemented : type.getInterfaces()) {
+				  name = findSchemaType(implemented);
+				  if (name.isPresent()) return name;
+			  }
+		  }
+		  return Optional.empty();
+	  }
+	  
 	  /** Find XML schema type for a given primitive class.
 	   * 
 	   * @param clazz
@@ -194,4 +243,181 @@ public class Types {
 		  if (!from_wrapper.isPresent() && to_wrapper.isPresent() && to_wrapper.get().isAssignableFrom(from)) return true;
 		  return false;
 	  }
+	  
+	  private static DatatypeFactory getDatatypeFactory() {
+		  // DatatypeFactory.newInstance() does a service lookup; only do it once per thread.
+		  return DATATYPE_FACTORY.get();
+	  }
+	  
+	  /** Get the content of a value mapped to xs:base64Binary.
+	   * 
+	   * Data handlers give their content as is, sources are serialized as XML, and images are
+	   * encoded as PNG.
+	   */
+	  private static byte[] toBinary(Object value) {
+		  ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		  try {
+			  if (value instanceof DataHandler) {
+				  try (InputStream in = ((DataHandler)value).getInputStream()) {
+					  byte[] buffer = new byte[8192];
+					  for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) bytes.write(buffer, 0, read);
+				  }
+			  } else if (value instanceof Source) {
+				  TransformerFactory.newInstance().newTransformer().transform((Source)value, new StreamResult(bytes));
+			  } else {
+				  Image image = (Image)value;
+				  RenderedImage rendered;
+				  if (image instanceof RenderedImage) {
+					  rendered = (RenderedImage)image;
+				  } else {
+					  int width = image.getWidth(null);
+					  int height = image.getHeight(null);
+					  if (width < 0 || height < 0) throw new IllegalArgumentException("Image is not loaded");
+					  BufferedImage buffered = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+					  Graphics2D graphics = buffered.createGraphics();
+					  graphics.drawImage(image, 0, 0, null);
+					  graphics.dispose();
+					  rendered = buffered;
+				  }
+				  ImageIO.write(rendered, "png", bytes);
+			  }
+		  } catch (IOException e) {
+			  throw new UncheckedIOException(e);
+		  } catch (TransformerException e) {
+			  throw new IllegalArgumentException("Cannot serialize source", e);
+		  }
+		  return bytes.toByteArray();
+	  }
+	  
+	  /** Convert a value to its lexical representation in XML schema.
+	   * 
+	   * Dates and calendars are written as xs:dateTime, enums by name, byte arrays, images, data 
+	   * handlers and sources as xs:base64Binary, and floating point infinities as INF/-INF. Anything 
+	   * else is converted with toString().
+	   * 
+	   * @param value Value to convert (may be null)
+	   * @return Lexical representation of value, or null if value is null.
+	   */
+	  public static String toXmlValue(Object value) {
+		  if (value == null) return null;
+		  if (value instanceof String) return (String)value;
+		  if (value instanceof Double || value instanceof Float) {
+			  double d = ((Number)value).doubleValue();
+			  if (d == Double.POSITIVE_INFINITY) return "INF";
+			  if (d == Double.NEGATIVE_INFINITY) return "-INF";
+			  return value.toString();
+		  }
+		  if (value instanceof Enum) return ((Enum<?>)value).name();
+		  if (value instanceof byte[]) return Base64.getEncoder().encodeToString((byte[])value);
+		  if (value instanceof Image || value instanceof DataHandler || value instanceof Source) 
+			  return Base64.getEncoder().encodeToString(toBinary(value));
+		  if (value instanceof Date) {
+			  GregorianCalendar calendar = new GregorianCalendar();
+			  calendar.setTime((Date)value);
+			  return getDatatypeFactory().newXMLGregorianCalendar(calendar).toXMLFormat();
+		  }
+		  if (value instanceof GregorianCalendar) return getDatatypeFactory().newXMLGregorianCalendar((GregorianCalendar)value).toXMLFormat();
+		  if (value instanceof Calendar) return toXmlValue(((Calendar)value).getTime());
+		  if (value instanceof XMLGregorianCalendar) return ((XMLGregorianCalendar)value).toXMLFormat();
+		  if (value instanceof QName) {
+			  QName qname = (QName)value;
+			  return qname.getPrefix().isEmpty() ? qname.getLocalPart() : qname.getPrefix() + ":" + qname.getLocalPart();
+		  }
+		  return value.toString();
+	  }
+	  
+	  /** Check whether {@link #fromXmlValue(String, Class)} can convert to a given type.
+	   * 
+	   * @param type Java type
+	   * @return true if values of the type can be read from their XML lexical representation.
+	   */
+	  public static boolean canConvertFromXml(Class<?> type) {
+		  Class<?> primitive = getTypeFromWrapper(type).orElse(type);
+		  return primitive.isPrimitive() && primitive != void.class
+			  || type.isEnum()
+			  || type == String.class || type == Object.class 
+			  || type == BigInteger.class || type == BigDecimal.class 
+			  || type == QName.class || type == byte[].class 
+			  || type == URI.class || type == UUID.class 
+			  || type == Duration.class || type == XMLGregorianCalendar.class 
+			  || type == Date.class || type == Calendar.class || type == GregorianCalendar.class;
+	  }
+	  
+	  /** Convert the lexical representation of an XML schema value to a java value.
+	   * 
+	   * The reverse of {@link #toXmlValue(Object)}. Primitive types are converted to the corresponding
+	   * wrapper type. QNames are parsed with QName.valueOf, so any prefix must already have been
+	   * resolved by the caller.
+	   * 
+	   * @param value Lexical representation of value (may be null)
+	   * @param type Java type to convert to
+	   * @return Converted value, or null if value is null.
+	   * @throws IllegalArgumentException if value cannot be converted to the given type
+	   */
+	  public static Object fromXmlValue(String value, Class<?> type) {
+		  return fromXmlValue(value, type, null);
+	  }
+
+	  private static int hexDigit(char c, String value) {
+		  int digit = Character.digit(c, 16);
+		  if (digit < 0) throw new IllegalArgumentException("Not xs:hexBinary: " + value);
+		  return digit;
+	  }
+
+	  private static byte[] parseHex(String value) {
+		  if (value.length() % 2 != 0) throw new IllegalArgumentException("Not xs:hexBinary: " + value);
+		  byte[] result = new byte[value.length() / 2];
+		  for (int i = 0; i < result.length; i++)
+			  result[i] = (byte)(hexDigit(value.charAt(2 * i), value) << 4 | hexDigit(value.charAt(2 * i + 1), value));
+		  return result;
+	  }
+
+	  /** Convert the lexical representation of an XML schema value to a java value.
+	   * 
+	   * As {@link #fromXmlValue(String, Class)}, but the schema type is used where one java type
+	   * has several lexical representations; byte arrays are read as xs:hexBinary if the schema 
+	   * type is QN_HEXBIN, and as xs:base64Binary otherwise.
+	   * 
+	   * @param value Lexical representation of value (may be null)
+	   * @param type Java type to convert to
+	   * @param schema_type Schema type of value, or null if not known
+	   * @return Converted value, or null if value is null.
+	   * @throws IllegalArgumentException if value cannot be converted to the given type
+	   */
+	  @SuppressWarnings({ "unchecked", "rawtypes" })
+	  public static Object fromXmlValue(String value, Class<?> type, QName schema_type) {
+		  if (value == null) return null;
+		  Class<?> primitive = getTypeFromWrapper(type).orElse(type);
+		  String trimmed = value.trim();
+		  if (type == String.class || type == Object.class) return value;
+		  if (primitive == boolean.class) {
+			  if ("true".equals(trimmed) || "1".equals(trimmed)) return Boolean.TRUE;
+			  if ("false".equals(trimmed) || "0".equals(trimmed)) return Boolean.FALSE;
+			  throw new IllegalArgumentException("Not xs:boolean: " + value);
+		  }
+		  if (primitive == byte.class) return Byte.valueOf(trimmed);
+		  if (primitive == short.class) return Short.valueOf(trimmed);
+		  if (primitive == int.class) return Integer.valueOf(trimmed);
+		  if (primitive == long.class) return Long.valueOf(trimmed);
+		  if (primitive == char.class) {
+			  if (value.length() != 1) throw new IllegalArgumentException("Not a single character: " + value);
+			  return value.charAt(0);
+		  }
+		  if (primitive == double.class || primitive == float.class) {
+			  double d = "INF".equals(trimmed) ? Double.POSITIVE_INFINITY : "-INF".equals(trimmed) ? Double.NEGATIVE_INFINITY : Double.parseDouble(trimmed);
+			  return primitive == double.class ? (Object)d : (Object)(float)d;
+		  }
+		  if (type == BigInteger.class) return new BigInteger(trimmed);
+		  if (type == BigDecimal.class) return new BigDecimal(trimmed);
+		  if (type == QName.class) return QName.valueOf(trimmed);
+		  if (type == byte[].class) return QN_HEXBIN.equals(schema_type) ? parseHex(trimmed) : Base64.getMimeDecoder().decode(trimmed);
+		  if (type == URI.class) return URI.create(trimmed);
+		  if (type == UUID.class) return UUID.fromString(trimmed);
+		  if (type == Duration.class) return getDatatypeFactory().newDuration(trimmed);
+		  if (type == XMLGregorianCalendar.class) return getDatatypeFactory().newXMLGregorianCalendar(trimmed);
+		  if (type == Date.class) return getDatatypeFactory().newXMLGregorianCalendar(trimmed).toGregorianCalendar().getTime();
+		  if (type == Calendar.class || type == GregorianCalendar.class) return getDatatypeFactory().newXMLGregorianCalendar(trimmed).toGregorianCalendar();
+		  if (type.isEnum()) return Enum.valueOf((Class<Enum>)type, trimmed);
+		  throw new IllegalArgumentException("Cannot convert XML value to " + type.getName());
+	  }
 }
@@ -2,6 +2,16 @@ package org.javadrupe.reflection.test;
 
 import static org.junit.Assert.*;
 
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import javax.imageio.ImageIO;
+import javax.xml.transform.stream.StreamSource;
+
 import org.javadrupe.reflection.Types;
 
 import org.junit.Test;
@@ -17,4 +27,43 @@ public class TestTypes {
 	public void testSchemaTypeFromBoxedType() {
 		assertEquals(Types.QN_DOUBLE, Types.getSchemaType(Double.class).get());
 	}
+
+	@Test
+	public void testHexBinary() {
+		assertArrayEquals(new byte[] { 0x0F, (byte)0xA0 }, (byte[])Types.fromXmlValue("0fA0", byte[].class, Types.QN_HEXBIN));
+		assertArrayEquals(new byte[] { 0x0F, (byte)0xA0 }, (byte[])Types.fromXmlValue("D6A=", byte[].class));
+	}
+
+	@Test
+	public void testBoolean() {
+		assertEquals(Boolean.TRUE, Types.fromXmlValue(" 1 ", boolean.class));
+		assertEquals(Boolean.FALSE, Types.fromXmlValue("false", Boolean.class));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidBoolean() {
+		Types.fromXmlValue("yes", boolean.class);
+	}
+
+	private enum Colour {
+		RED;
+		@Override
+		public String toString() { return "red"; }
+	}
+
+	@Test
+	public void testEnumByName() {
+		assertEquals("RED", Types.toXmlValue(Colour.RED));
+		assertEquals(Colour.RED, Types.fromXmlValue(Types.toXmlValue(Colour.RED), Colour.class));
+	}
+
+	@Test
+	public void testBinaryValues() throws IOException {
+		String xml = new String(Base64.getDecoder().decode(Types.toXmlValue(new StreamSource(new StringReader("<a>b</a>")))), StandardCharsets.UTF_8);
+		assertTrue(xml.indexOf("<a>b</a>") >= 0);
+		BufferedImage image = new BufferedImage(3, 2, BufferedImage.TYPE_INT_ARGB);
+		BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(Base64.getDecoder().decode(Types.toXmlValue(image))));
+		assertEquals(3, decoded.getWidth());
+		assertEquals(2, decoded.getHeight());
+	}
 }
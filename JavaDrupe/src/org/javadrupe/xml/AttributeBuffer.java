@@ -0,0 +1,87 @@
+package org.javadrupe.xml;
+
+import java.util.Arrays;
+
+import org.xml.sax.Attributes;
+
+/** Reusable attribute store for TransformerWriter.
+ *
+ * Like AttributesImpl, but held as parallel arrays which can be presized for a batch of
+ * attributes and which are reused (not reallocated) when cleared. Only CDATA attributes
+ * are supported, as that is all TransformerWriter can write.
+ *
+ * @author Jonathan Essex
+ *
+ */
+class AttributeBuffer implements Attributes {
+
+	private static final String CDATA = "CDATA";
+
+	private String[] uris = new String[8];
+	private String[] local_names = new String[8];
+	private String[] qnames = new String[8];
+	private String[] values = new String[8];
+	private int length = 0;
+
+	/** Make sure there is space for at least <code>capacity</code> attributes */
+	public void ensureCapacity(int capacity) {
+		if (capacity > uris.length) {
+			int new_capacity = Math.max(capacity, uris.length * 2);
+			uris = Arrays.copyOf(uris, new_capacity);
+			local_names = Arrays.copyOf(local_names, new_capacity);
+			qnames = Arrays.copyOf(qnames, new_capacity);
+			values = Arrays.copyOf(values, new_capacity);
+		}
+	}
+
+	public void add(String uri, String local_name, String qname, String value) {
+		ensureCapacity(length + 1);
+		uris[length] = uri;
+		local_names[length] = local_name;
+		qnames[length] = qname;
+		values[length] = value;
+		length++;
+	}
+
+	public void clear() {
+		// Drop references so that values can be collected, but keep the arrays.
+		Arrays.fill(values, 0, length, null);
+		length = 0;
+	}
+
+	@Override
+	public int getLength() { return length; }
+	@Override
+	public String getURI(int index) { return index < length ? uris[index] : null; }
+	@Override
+	public String getLocalName(int index) { return index < length ? local_names[index] : null; }
+	@Override
+	public String getQName(int index) { return index < length ? qnames[index] : null; }
+	@Override
+	public String getType(int index) { return index < length ? CDATA : null; }
+	@Override
+	public String getValue(int index) { return index < length ? values[index] : null; }
+
+	@Override
+	public int getIndex(String uri, String local_name) {
+		for (int i = 0; i < length; i++)
+			if (uris[i].equals(uri) && local_names[i].equals(local_name)) return i;
+		return -1;
+	}
+
+	@Override
+	public int getIndex(String qname) {
+		for (int i = 0; i < length; i++)
+			if (qnames[i].equals(qname)) return i;
+		return -1;
+	}
+
+	@Override
+	public String getType(String uri, String local_name) { return getIndex(uri, local_name) < 0 ? null : CDATA; }
+	@Override
+	public String getType(String qname) { return getIndex(qname) < 0 ? null : CDATA; }
+	@Override
+	public String getValue(String uri, String local_name) { int i = getIndex(uri, local_name); return i < 0 ? null : values[i]; }
+	@Override
+	public String getValue(String qname) { int i = getIndex(qname); return i < 0 ? null : values[i]; }
+}
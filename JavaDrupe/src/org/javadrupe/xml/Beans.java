@@ -0,0 +1,78 @@
+package org.javadrupe.xml;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/** Bean introspection helpers shared by Marshaller and Unmarshaller.
+ *
+ * @author Jonathan Essex
+ *
+ */
+class Beans {
+
+	static String decapitalize(String name) {
+		if (name.isEmpty() || (name.length() > 1 && Character.isUpperCase(name.charAt(1)))) return name;
+		return Character.toLowerCase(name.charAt(0)) + name.substring(1);
+	}
+
+	/** Get property name for a getter method, or null if the method is not a getter */
+	static String getGetterPropertyName(Method method) {
+		if (Modifier.isStatic(method.getModifiers()) || method.getParameterCount() != 0) return null;
+		String name = method.getName();
+		if (name.equals("getClass")) return null;
+		if (name.startsWith("get") && name.length() > 3 && method.getReturnType() != void.class) return decapitalize(name.substring(3));
+		if (name.startsWith("is") && name.length() > 2 && method.getReturnType() == boolean.class) return decapitalize(name.substring(2));
+		return null;
+	}
+
+	/** Get property name for a setter method, or null if the method is not a setter */
+	static String getSetterPropertyName(Method method) {
+		if (Modifier.isStatic(method.getModifiers()) || method.getParameterCount() != 1) return null;
+		String name = method.getName();
+		if (name.startsWith("set") && name.length() > 3) return decapitalize(name.substring(3));
+		return null;
+	}
+
+	// Each of the following tries the public lookup first, falling back to setAccessible
+	// for public members of a class which is not itself public.
+
+	static MethodHandle unreflect(Method method) throws IllegalAccessException {
+		try {
+			return MethodHandles.publicLookup().unreflect(method);
+		} catch (IllegalAccessException e) {
+			method.setAccessible(true);
+			return MethodHandles.lookup().unreflect(method);
+		}
+	}
+
+	static MethodHandle unreflectConstructor(Constructor<?> constructor) throws IllegalAccessException {
+		try {
+			return MethodHandles.publicLookup().unreflectConstructor(constructor);
+		} catch (IllegalAccessException e) {
+			constructor.setAccessible(true);
+			return MethodHandles.lookup().unreflectConstructor(constructor);
+		}
+	}
+
+	static MethodHandle unreflectGetter(Field field) throws IllegalAccessException {
+		try {
+			return MethodHandles.publicLookup().unreflectGetter(field);
+		} catch (IllegalAccessException e) {
+			field.setAccessible(true);
+			return MethodHandles.lookup().unreflectGetter(field);
+		}
+	}
+
+	static MethodHandle unreflectSetter(Field field) throws IllegalAccessException {
+		try {
+			return MethodHandles.publicLookup().unreflectSetter(field);
+		} catch (IllegalAccessException e) {
+			field.setAccessible(true);
+			return MethodHandles.lookup().unreflectSetter(field);
+		}
+	}
+}
@@ -0,0 +1,35 @@
+package org.javadrupe.xml;
+
+import java.util.List;
+
+import javax.xml.namespace.QName;
+
+/** Decides which elements written to a TransformerWriter reach the transformer.
+ *
+ * The filter is asked about each element as it is started, unless an ancestor has already
+ * been excluded or included in its entirety.
+ *
+ * @see TransformerWriter#setElementFilter(ElementFilter)
+ * @see PathProjection
+ * @author Jonathan Essex
+ *
+ */
+@FunctionalInterface
+public interface ElementFilter {
+
+	public enum Action {
+		/** Write the element, and ask the filter about each child element */
+		INCLUDE,
+		/** Write the element and everything in it, without asking the filter about children */
+		INCLUDE_ALL,
+		/** Drop the element and everything in it */
+		EXCLUDE
+	}
+
+	/** Decide what to do with an element.
+	 *
+	 * @param path Names of the elements from the document element down to the new element (inclusive). Do not modify or retain.
+	 * @return action to take for the new element
+	 */
+	public Action filter(List<QName> path);
+}
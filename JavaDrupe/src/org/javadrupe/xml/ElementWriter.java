@@ -0,0 +1,15 @@
+package org.javadrupe.xml;
+
+import javax.xml.stream.XMLStreamException;
+
+/** Callback which writes the content of an element.
+ *
+ * @see TransformerWriter#writeElement(javax.xml.namespace.QName, ElementWriter)
+ * @author Jonathan Essex
+ *
+ */
+@FunctionalInterface
+public interface ElementWriter {
+	/** Write attributes and content of the current element to the writer */
+	public void write(TransformerWriter writer) throws XMLStreamException;
+}
@@ -0,0 +1,280 @@
+package org.javadrupe.xml;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Objects;
+
+import javax.xml.transform.Result;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.sax.TransformerHandler;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+
+import static org.javadrupe.xml.EventRecording.*;
+
+/** TransformerHandler which records the events it receives as an {@link EventRecording}.
+ * <p>
+ * Typically used as the handler of a TransformerWriter, so that a document which is expensive to
+ * generate can be written once and replayed many times, or as one branch of a {@link TeeHandler}
+ * so that the document is recorded while it is being transformed.
+ * </p><p>
+ * DTD declarations (notations and unparsed entities) are not recorded. There is no transformer;
+ * getTransformer returns null.
+ * </p>
+ * @author Jonathan Essex
+ *
+ */
+public class EventRecorder implements TransformerHandler {
+
+	/** Entry in the table of names already written; chained on local name */
+	private static class Name {
+		final String uri;
+		final String qname;
+		final int index;
+		final Name next;
+
+		Name(String uri, String qname, int index, Name next) {
+			this.uri = uri;
+			this.qname = qname;
+			this.index = index;
+			this.next = next;
+		}
+	}
+
+	private byte[] data = new byte[4096];
+	private int length = 0;
+	private final HashMap<String, Integer> strings = new HashMap<String, Integer>();
+	private final HashMap<String, Name> names = new HashMap<String, Name>();
+	private int name_count = 0;
+	private String system_id;
+
+	private void ensureCapacity(int extra) {
+		if (length + extra > data.length) data = Arrays.copyOf(data, Math.max(length + extra, data.length * 2));
+	}
+
+	private void writeByte(int value) {
+		ensureCapacity(1);
+		data[length++] = (byte)value;
+	}
+
+	private void writeInt(int value) {
+		ensureCapacity(5);
+		while ((value & ~0x7F) != 0) {
+			data[length++] = (byte)((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		data[length++] = (byte)value;
+	}
+
+	private void writeText(char[] ch, int start, int count) {
+		writeInt(count);
+		ensureCapacity(count * 3);
+		for (int i = start; i < start + count; i++) {
+			char c = ch[i];
+			if (c < 0x80) data[length++] = (byte)c;
+			else writeInt(c);
+		}
+	}
+
+	private void writeText(String text) {
+		int count = text.length();
+		writeInt(count);
+		ensureCapacity(count * 3);
+		for (int i = 0; i < count; i++) {
+			char c = text.charAt(i);
+			if (c < 0x80) data[length++] = (byte)c;
+			else writeInt(c);
+		}
+	}
+
+	private void writeString(String value) {
+		if (value == null) {
+			writeInt(NULL_STRING);
+			return;
+		}
+		Integer index = strings.get(value);
+		if (index == null) {
+			strings.put(value, strings.size());
+			writeInt(NEW_STRING);
+			writeText(value);
+		} else {
+			writeInt(index + FIRST_STRING_INDEX);
+		}
+	}
+
+	private void writeName(String uri, String local_name, String qname) {
+		Name first = names.get(local_name);
+		for (Name name = first; name != null; name = name.next) {
+			if (Objects.equals(name.uri, uri) && Objects.equals(name.qname, qname)) {
+				writeInt(name.index + 1);
+				return;
+			}
+		}
+		names.put(local_name, new Name(uri, qname, name_count++, first));
+		writeInt(NEW_NAME);
+		writeString(uri);
+		writeString(local_name);
+		writeString(qname);
+	}
+
+	/** Get a recording of the events received so far.
+	 *
+	 * The recorder may continue to be used; later events do not affect the returned recording.
+	 *
+	 * @return recording
+	 */
+	public EventRecording getRecording() {
+		return new EventRecording(Arrays.copyOf(data, length), length);
+	}
+
+	/** Discard everything recorded so far. */
+	public void reset() {
+		length = 0;
+		strings.clear();
+		names.clear();
+		name_count = 0;
+	}
+
+	@Override
+	public void setDocumentLocator(Locator locator) {
+	}
+
+	@Override
+	public void startDocument() throws SAXException {
+		writeByte(START_DOCUMENT);
+	}
+
+	@Override
+	public void endDocument() throws SAXException {
+		writeByte(END_DOCUMENT);
+	}
+
+	@Override
+	public void startPrefixMapping(String prefix, String uri) throws SAXException {
+		writeByte(START_PREFIX_MAPPING);
+		writeString(prefix);
+		writeString(uri);
+	}
+
+	@Override
+	public void endPrefixMapping(String prefix) throws SAXException {
+		writeByte(END_PREFIX_MAPPING);
+		writeString(prefix);
+	}
+
+	@Override
+	public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+		writeByte(START_ELEMENT);
+		writeName(uri, localName, qName);
+		int count = atts.getLength();
+		writeInt(count);
+		for (int i = 0; i < count; i++) {
+			writeName(atts.getURI(i), atts.getLocalName(i), atts.getQName(i));
+			writeString(atts.getType(i));
+			writeText(atts.getValue(i));
+		}
+	}
+
+	@Override
+	public void endElement(String uri, String localName, String qName) throws SAXException {
+		writeByte(END_ELEMENT);
+		writeName(uri, localName, qName);
+	}
+
+	@Override
+	public void characters(char[] ch, int start, int length) throws SAXException {
+		writeByte(CHARACTERS);
+		writeText(ch, start, length);
+	}
+
+	@Override
+	public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+		writeByte(IGNORABLE_WHITESPACE);
+		writeText(ch, start, length);
+	}
+
+	@Override
+	public void processingInstruction(String target, String data) throws SAXException {
+		writeByte(PROCESSING_INSTRUCTION);
+		writeString(target);
+		writeText(data == null ? "" : data);
+	}
+
+	@Override
+	public void skippedEntity(String name) throws SAXException {
+		writeByte(SKIPPED_ENTITY);
+		writeString(name);
+	}
+
+	@Override
+	public void startDTD(String name, String publicId, String systemId) throws SAXException {
+		writeByte(START_DTD);
+		writeString(name);
+		writeString(publicId);
+		writeString(systemId);
+	}
+
+	@Override
+	public void endDTD() throws SAXException {
+		writeByte(END_DTD);
+	}
+
+	@Override
+	public void startEntity(String name) throws SAXException {
+		writeByte(START_ENTITY);
+		writeString(name);
+	}
+
+	@Override
+	public void endEntity(String name) throws SAXException {
+		writeByte(END_ENTITY);
+		writeString(name);
+	}
+
+	@Override
+	public void startCDATA() throws SAXException {
+		writeByte(START_CDATA);
+	}
+
+	@Override
+	public void endCDATA() throws SAXException {
+		writeByte(END_CDATA);
+	}
+
+	@Override
+	public void comment(char[] ch, int start, int length) throws SAXException {
+		writeByte(COMMENT);
+		writeText(ch, start, length);
+	}
+
+	@Override
+	public void notationDecl(String name, String publicId, String systemId) throws SAXException {
+	}
+
+	@Override
+	public void unparsedEntityDecl(String name, String publicId, String systemId, String notationName) throws SAXException {
+	}
+
+	/** Not supported; events are recorded rather than sent to a result. */
+	@Override
+	public void setResult(Result result) throws IllegalArgumentException {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void setSystemId(String systemID) {
+		this.system_id = systemID;
+	}
+
+	@Override
+	public String getSystemId() {
+		return system_id;
+	}
+
+	@Override
+	public Transformer getTransformer() {
+		return null;
+	}
+}
@@ -0,0 +1,273 @@
+package org.javadrupe.xml;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+
+/** Compact binary recording of a stream of SAX events.
+ * <p>
+ * Created by an {@link EventRecorder}, usually attached to a TransformerWriter. A recording can be
+ * replayed into any handler (typically a TransformerHandler for some stylesheet) many times, which
+ * is much faster than generating the document again. Recordings are immutable and may be replayed
+ * on several threads at once.
+ * </p><p>
+ * Each event is a one byte opcode followed by its arguments. Lengths and indexes are written as
+ * variable length integers. Strings such as prefixes and URIs are written once and then referred
+ * to by index, and element and attribute names (URI, local name and qualified name together) are
+ * likewise written once per recording.
+ * </p>
+ * @author Jonathan Essex
+ *
+ */
+public class EventRecording {
+
+	static final int START_DOCUMENT = 1;
+	static final int END_DOCUMENT = 2;
+	static final int START_PREFIX_MAPPING = 3;
+	static final int END_PREFIX_MAPPING = 4;
+	static final int START_ELEMENT = 5;
+	static final int END_ELEMENT = 6;
+	static final int CHARACTERS = 7;
+	static final int IGNORABLE_WHITESPACE = 8;
+	static final int PROCESSING_INSTRUCTION = 9;
+	static final int SKIPPED_ENTITY = 10;
+	static final int START_DTD = 11;
+	static final int END_DTD = 12;
+	static final int START_ENTITY = 13;
+	static final int END_ENTITY = 14;
+	static final int START_CDATA = 15;
+	static final int END_CDATA = 16;
+	static final int COMMENT = 17;
+
+	/** String reference for null */
+	static final int NULL_STRING = 0;
+	/** String reference meaning a new string follows */
+	static final int NEW_STRING = 1;
+	/** String references from this value up are indexes into the string table */
+	static final int FIRST_STRING_INDEX = 2;
+	/** Name reference meaning a new name follows */
+	static final int NEW_NAME = 0;
+
+	private static final int MAGIC = 0x4A445231; // "JDR1"
+
+	private final byte[] data;
+	private final int length;
+
+	EventRecording(byte[] data, int length) {
+		this.data = data;
+		this.length = length;
+	}
+
+	/** Size of the recording in bytes */
+	public int size() {
+		return length;
+	}
+
+	/** Add the bytes of the recording to a message digest.
+	 *
+	 * Recordings of identical event streams made by fresh recorders are byte-for-byte identical,
+	 * so the digest identifies the content of the recording.
+	 *
+	 * @param digest Digest to update
+	 */
+	public void digest(MessageDigest digest) {
+		digest.update(data, 0, length);
+	}
+
+	/** Decoder state for one replay */
+	private class Replay {
+		private int position = 0;
+		private char[] text = new char[256];
+		private int text_length;
+		private final ArrayList<String> strings = new ArrayList<String>();
+		private final ArrayList<String[]> names = new ArrayList<String[]>();
+		private final AttributesImpl attributes = new AttributesImpl();
+
+		private int readInt() {
+			int result = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = data[position++];
+				result |= (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+			return result;
+		}
+
+		/** Read characters into the text buffer */
+		private void readText() {
+			text_length = readInt();
+			if (text.length < text_length) text = new char[Math.max(text_length, text.length * 2)];
+			for (int i = 0; i < text_length; i++) text[i] = (char)readInt();
+		}
+
+		private String readString() {
+			int ref = readInt();
+			if (ref == NULL_STRING) return null;
+			if (ref == NEW_STRING) {
+				readText();
+				String result = new String(text, 0, text_length);
+				strings.add(result);
+				return result;
+			}
+			return strings.get(ref - FIRST_STRING_INDEX);
+		}
+
+		private String[] readName() {
+			int ref = readInt();
+			if (ref == NEW_NAME) {
+				String[] name = new String[] { readString(), readString(), readString() };
+				names.add(name);
+				return name;
+			}
+			return names.get(ref - 1);
+		}
+
+		public void run(ContentHandler content, LexicalHandler lexical) throws SAXException {
+			while (position < length) {
+				int opcode = data[position++];
+				switch (opcode) {
+				case START_DOCUMENT: content.startDocument(); break;
+				case END_DOCUMENT: content.endDocument(); break;
+				case START_PREFIX_MAPPING: {
+					String prefix = readString();
+					content.startPrefixMapping(prefix, readString());
+					break;
+				}
+				case END_PREFIX_MAPPING: content.endPrefixMapping(readString()); break;
+				case START_ELEMENT: {
+					String[] name = readName();
+					int count = readInt();
+					attributes.clear();
+					for (int i = 0; i < count; i++) {
+						String[] attribute = readName();
+						String type = readString();
+						readText();
+						attributes.addAttribute(attribute[0], attribute[1], attribute[2], type, new String(text, 0, text_length));
+					}
+					content.startElement(name[0], name[1], name[2], attributes);
+					break;
+				}
+				case END_ELEMENT: {
+					String[] name = readName();
+					content.endElement(name[0], name[1], name[2]);
+					break;
+				}
+				case CHARACTERS: readText(); content.characters(text, 0, text_length); break;
+				case IGNORABLE_WHITESPACE: readText(); content.ignorableWhitespace(text, 0, text_length); break;
+				case PROCESSING_INSTRUCTION: {
+					String target = readString();
+					readText();
+					content.processingInstruction(target, new String(text, 0, text_length));
+					break;
+				}
+				case SKIPPED_ENTITY: content.skippedEntity(readString()); break;
+				case START_DTD: {
+					String name = readString();
+					String public_id = readString();
+					String system_id = readString();
+					if (lexical != null) lexical.startDTD(name, public_id, system_id);
+					break;
+				}
+				case END_DTD: if (lexical != null) lexical.endDTD(); break;
+				case START_ENTITY: {
+					String name = readString();
+					if (lexical != null) lexical.startEntity(name);
+					break;
+				}
+				case END_ENTITY: {
+					String name = readString();
+					if (lexical != null) lexical.endEntity(name);
+					break;
+				}
+				case START_CDATA: if (lexical != null) lexical.startCDATA(); break;
+				case END_CDATA: if (lexical != null) lexical.endCDATA(); break;
+				case COMMENT: readText(); if (lexical != null) lexical.comment(text, 0, text_length); break;
+				default: throw new SAXException("Corrupt event recording: unknown opcode " + opcode + " at " + (position - 1));
+				}
+			}
+		}
+	}
+
+	/** Replay recorded events.
+	 *
+	 * @param content Handler for content events
+	 * @param lexical Handler for lexical events (comments, CDATA and DTD), or null to drop them
+	 * @throws SAXException
+	 */
+	public void replay(ContentHandler content, LexicalHandler lexical) throws SAXException {
+		new Replay().run(content, lexical);
+	}
+
+	/** Replay recorded events into a handler which accepts both content and lexical events.
+	 *
+	 * @param handler Handler, typically a TransformerHandler
+	 * @throws SAXException
+	 */
+	public <T extends ContentHandler & LexicalHandler> void replay(T handler) throws SAXException {
+		replay(handler, handler);
+	}
+
+	/** Write recording to a stream.
+	 *
+	 * @param out Stream to write to
+	 * @throws IOException
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		DataOutputStream data_out = new DataOutputStream(out);
+		data_out.writeInt(MAGIC);
+		data_out.writeInt(length);
+		data_out.write(data, 0, length);
+		data_out.flush();
+	}
+
+	/** Read a recording previously written with writeTo.
+	 *
+	 * @param in Stream to read from
+	 * @return the recording
+	 * @throws IOException
+	 */
+	public static EventRecording readFrom(InputStream in) throws IOException {
+		DataInputStream data_in = new DataInputStream(in);
+		if (data_in.readInt() != MAGIC) throw new IOException("Not an event recording");
+		int length = data_in.readInt();
+		byte[] data = new byte[length];
+		data_in.readFully(data);
+		return new EventRecording(data, length);
+	}
+
+	/** Save recording to a file.
+	 *
+	 * @param path File to write
+	 * @throws IOException
+	 */
+	public void save(Path path) throws IOException {
+		try (OutputStream out = Files.newOutputStream(path)) {
+			writeTo(out);
+		}
+	}
+
+	/** Load a recording from a file.
+	 *
+	 * @param path File to read
+	 * @return the recording
+	 * @throws IOException
+	 */
+	public static EventRecording load(Path path) throws IOException {
+		try (InputStream in = Files.newInputStream(path)) {
+			return readFrom(in);
+		}
+	}
+}
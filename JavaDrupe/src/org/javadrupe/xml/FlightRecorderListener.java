@@ -0,0 +1,108 @@
+package org.javadrupe.xml;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/** MetricsRegistry listener which commits a JDK Flight Recorder event for each document.
+ * <p>
+ * Usage is <code>registry.addListener(new FlightRecorderListener())</code>. Each completed document
+ * is then recorded as an <code>org.javadrupe.xml.Document</code> event, with the counters from
+ * {@link WriterMetrics} as fields, whenever a recording with that event enabled is running.
+ * </p><p>
+ * This project compiles at Java 1.8, which has no jdk.jfr API, so the event type is defined when
+ * the listener is created, through jdk.jfr.EventFactory. On a JVM without that API (such as an
+ * older Java 8) the listener does nothing; {@link #isAvailable()} says which.
+ * </p>
+ * @author Jonathan Essex
+ *
+ */
+public class FlightRecorderListener implements Consumer<WriterMetrics> {
+
+	/** Name of the event type */
+	public static final String EVENT_NAME = "org.javadrupe.xml.Document";
+
+	private static final String[] COUNTERS = { "elements", "attributes", "characters", "namespaceDeclarations", "maxDepth" };
+	private static final String[] TIMESPANS = { "elapsedNanos", "handlerNanos", "writerNanos" };
+
+	/** Creates events; null if Flight Recorder is not available */
+	private final Object factory;
+	private final Method new_event;
+	private final Method set;
+	private final Method should_commit;
+	private final Method commit;
+
+	private static Object annotation(Constructor<?> constructor, String type, Object value) throws ReflectiveOperationException {
+		return constructor.newInstance(Class.forName(type), value);
+	}
+
+	/** True if this JVM supports Flight Recorder events defined at run time */
+	public static boolean isAvailable() {
+		try {
+			Class.forName("jdk.jfr.EventFactory");
+			return true;
+		} catch (ClassNotFoundException e) {
+			return false;
+		}
+	}
+
+	@Override
+	public void accept(WriterMetrics metrics) {
+		if (factory == null) return;
+		try {
+			Object event = new_event.invoke(factory);
+			if (!(Boolean)should_commit.invoke(event)) return;
+			Object[] values = {
+				metrics.getElements(), metrics.getAttributes(), metrics.getCharacters(), metrics.getNamespaceDeclarations(), (long)metrics.getMaxDepth(),
+				metrics.getElapsedNanos(), metrics.getHandlerNanos(), metrics.getWriterNanos()
+			};
+			for (int i = 0; i < values.length; i++) set.invoke(event, i, values[i]);
+			commit.invoke(event);
+		} catch (IllegalAccessException | InvocationTargetException e) {
+			throw new IllegalStateException("Cannot commit Flight Recorder event", e);
+		}
+	}
+
+	/** Create a listener, defining the event type if Flight Recorder is available. */
+	public FlightRecorderListener() {
+		Object factory = null;
+		Method new_event = null, set = null, should_commit = null, commit = null;
+		if (isAvailable()) {
+			try {
+				Class<?> annotation_type = Class.forName("jdk.jfr.AnnotationElement");
+				Class<?> descriptor_type = Class.forName("jdk.jfr.ValueDescriptor");
+				Class<?> factory_type = Class.forName("jdk.jfr.EventFactory");
+				Class<?> event_type = Class.forName("jdk.jfr.Event");
+				Constructor<?> annotation = annotation_type.getConstructor(Class.class, Object.class);
+				Constructor<?> descriptor = descriptor_type.getConstructor(Class.class, String.class, List.class);
+
+				List<Object> annotations = Arrays.asList(
+					annotation(annotation, "jdk.jfr.Name", EVENT_NAME),
+					annotation(annotation, "jdk.jfr.Label", "XML Document Written"),
+					annotation(annotation, "jdk.jfr.Category", new String[] { "JavaDrupe" }));
+				List<Object> timespan = Collections.singletonList(annotation(annotation, "jdk.jfr.Timespan", "NANOSECONDS"));
+				List<Object> fields = new ArrayList<Object>();
+				for (String name : COUNTERS) fields.add(descriptor.newInstance(long.class, name, Collections.emptyList()));
+				for (String name : TIMESPANS) fields.add(descriptor.newInstance(long.class, name, timespan));
+
+				factory = factory_type.getMethod("create", List.class, List.class).invoke(null, annotations, fields);
+				new_event = factory_type.getMethod("newEvent");
+				set = event_type.getMethod("set", int.class, Object.class);
+				should_commit = event_type.getMethod("shouldCommit");
+				commit = event_type.getMethod("commit");
+			} catch (ReflectiveOperationException e) {
+				throw new IllegalStateException("Cannot define Flight Recorder event", e);
+			}
+		}
+		this.factory = factory;
+		this.new_event = new_event;
+		this.set = set;
+		this.should_commit = should_commit;
+		this.commit = commit;
+	}
+}
@@ -0,0 +1,76 @@
+package org.javadrupe.xml;
+
+import javax.xml.transform.Result;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.sax.TransformerHandler;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+
+/** TransformerHandler which forwards every event to another TransformerHandler.
+ *
+ * Base class for handlers which sit between a TransformerWriter and the real transformer,
+ * looking at or altering the events which pass through. Subclasses override only the
+ * events they are interested in.
+ *
+ * @author Jonathan Essex
+ *
+ */
+public abstract class ForwardingHandler implements TransformerHandler {
+
+	protected final TransformerHandler target;
+
+	protected ForwardingHandler(TransformerHandler target) {
+		this.target = target;
+	}
+
+	@Override
+	public void setDocumentLocator(Locator locator) { target.setDocumentLocator(locator); }
+	@Override
+	public void startDocument() throws SAXException { target.startDocument(); }
+	@Override
+	public void endDocument() throws SAXException { target.endDocument(); }
+	@Override
+	public void startPrefixMapping(String prefix, String uri) throws SAXException { target.startPrefixMapping(prefix, uri); }
+	@Override
+	public void endPrefixMapping(String prefix) throws SAXException { target.endPrefixMapping(prefix); }
+	@Override
+	public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException { target.startElement(uri, localName, qName, atts); }
+	@Override
+	public void endElement(String uri, String localName, String qName) throws SAXException { target.endElement(uri, localName, qName); }
+	@Override
+	public void characters(char[] ch, int start, int length) throws SAXException { target.characters(ch, start, length); }
+	@Override
+	public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException { target.ignorableWhitespace(ch, start, length); }
+	@Override
+	public void processingInstruction(String target, String data) throws SAXException { this.target.processingInstruction(target, data); }
+	@Override
+	public void skippedEntity(String name) throws SAXException { target.skippedEntity(name); }
+	@Override
+	public void startDTD(String name, String publicId, String systemId) throws SAXException { target.startDTD(name, publicId, systemId); }
+	@Override
+	public void endDTD() throws SAXException { target.endDTD(); }
+	@Override
+	public void startEntity(String name) throws SAXException { target.startEntity(name); }
+	@Override
+	public void endEntity(String name) throws SAXException { target.endEntity(name); }
+	@Override
+	public void startCDATA() throws SAXException { target.startCDATA(); }
+	@Override
+	public void endCDATA() throws SAXException { target.endCDATA(); }
+	@Override
+	public void comment(char[] ch, int start, int length) throws SAXException { target.comment(ch, start, length); }
+	@Override
+	public void notationDecl(String name, String publicId, String systemId) throws SAXException { target.notationDecl(name, publicId, systemId); }
+	@Override
+	public void unparsedEntityDecl(String name, String publicId, String systemId, String notationName) throws SAXException { target.unparsedEntityDecl(name, publicId, systemId, notationName); }
+	@Override
+	public void setResult(Result result) throws IllegalArgumentException { target.setResult(result); }
+	@Override
+	public void setSystemId(String systemID) { target.setSystemId(systemID); }
+	@Override
+	public String getSystemId() { return target.getSystemId(); }
+	@Override
+	public Transformer getTransformer() { return target.getTransformer(); }
+}
@@ -0,0 +1,192 @@
+package org.javadrupe.xml;
+
+import javax.xml.transform.sax.TransformerHandler;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+
+/** Handler which counts events and samples the time spent in the handler it wraps.
+ *
+ * Only installed by TransformerWriter when a MetricsRegistry is supplied. Every event passed on
+ * to the wrapped handler counts towards the sample, so time spent in prefix mappings, processing
+ * instructions and lexical events is measured along with elements and text.
+ *
+ * @author Jonathan Essex
+ *
+ */
+class InstrumentedHandler extends ForwardingHandler {
+
+	/** Returned by begin() for a call which is not timed */
+	private static final long NOT_SAMPLED = Long.MIN_VALUE;
+
+	private final MetricsRegistry registry;
+	private final int sample_mask;
+	private WriterMetrics metrics = new WriterMetrics();
+	private int calls = 0;
+
+	public InstrumentedHandler(TransformerHandler target, MetricsRegistry registry) {
+		super(target);
+		this.registry = registry;
+		this.sample_mask = registry.getSampleMask();
+	}
+
+	public WriterMetrics getMetrics() {
+		return metrics;
+	}
+
+	/** Start timing a handler call, if it is one of the calls sampled */
+	private long begin() {
+		return (++calls & sample_mask) == 0 ? System.nanoTime() : NOT_SAMPLED;
+	}
+
+	private void end(long start) {
+		if (start == NOT_SAMPLED) return;
+		long nanos = System.nanoTime() - start;
+		metrics.handler_nanos += nanos * (sample_mask + 1);
+		registry.recordHandlerLatency(nanos);
+	}
+
+	@Override
+	public void startDocument() throws SAXException {
+		metrics = new WriterMetrics();
+		metrics.start_nanos = System.nanoTime();
+		long start = begin();
+		super.startDocument();
+		end(start);
+	}
+
+	@Override
+	public void endDocument() throws SAXException {
+		long start = begin();
+		super.endDocument();
+		end(start);
+		metrics.elapsed_nanos = System.nanoTime() - metrics.start_nanos;
+		registry.documentCompleted(metrics);
+	}
+
+	@Override
+	public void startPrefixMapping(String prefix, String uri) throws SAXException {
+		metrics.namespace_declarations++;
+		long start = begin();
+		super.startPrefixMapping(prefix, uri);
+		end(start);
+	}
+
+	@Override
+	public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+		metrics.elements++;
+		metrics.attributes += atts.getLength();
+		if (++metrics.depth > metrics.max_depth) metrics.max_depth = metrics.depth;
+		long start = begin();
+		super.startElement(uri, localName, qName, atts);
+		end(start);
+	}
+
+	@Override
+	public void endElement(String uri, String localName, String qName) throws SAXException {
+		metrics.depth--;
+		long start = begin();
+		super.endElement(uri, localName, qName);
+		end(start);
+	}
+
+	@Override
+	public void characters(char[] ch, int start, int length) throws SAXException {
+		metrics.characters += length;
+		long begin = begin();
+		super.characters(ch, start, length);
+		end(begin);
+	}
+
+	@Override
+	public void comment(char[] ch, int start, int length) throws SAXException {
+		metrics.characters += length;
+		long begin = begin();
+		super.comment(ch, start, length);
+		end(begin);
+	}
+
+	@Override
+	public void endPrefixMapping(String prefix) throws SAXException {
+		long start = begin();
+		super.endPrefixMapping(prefix);
+		end(start);
+	}
+
+	@Override
+	public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+		long begin = begin();
+		super.ignorableWhitespace(ch, start, length);
+		end(begin);
+	}
+
+	@Override
+	public void processingInstruction(String target, String data) throws SAXException {
+		long start = begin();
+		super.processingInstruction(target, data);
+		end(start);
+	}
+
+	@Override
+	public void skippedEntity(String name) throws SAXException {
+		long start = begin();
+		super.skippedEntity(name);
+		end(start);
+	}
+
+	@Override
+	public void startDTD(String name, String publicId, String systemId) throws SAXException {
+		long start = begin();
+		super.startDTD(name, publicId, systemId);
+		end(start);
+	}
+
+	@Override
+	public void endDTD() throws SAXException {
+		long start = begin();
+		super.endDTD();
+		end(start);
+	}
+
+	@Override
+	public void startEntity(String name) throws SAXException {
+		long start = begin();
+		super.startEntity(name);
+		end(start);
+	}
+
+	@Override
+	public void endEntity(String name) throws SAXException {
+		long start = begin();
+		super.endEntity(name);
+		end(start);
+	}
+
+	@Override
+	public void startCDATA() throws SAXException {
+		long start = begin();
+		super.startCDATA();
+		end(start);
+	}
+
+	@Override
+	public void endCDATA() throws SAXException {
+		long start = begin();
+		super.endCDATA();
+		end(start);
+	}
+
+	@Override
+	public void notationDecl(String name, String publicId, String systemId) throws SAXException {
+		long start = begin();
+		super.notationDecl(name, publicId, systemId);
+		end(start);
+	}
+
+	@Override
+	public void unparsedEntityDecl(String name, String publicId, String systemId, String notationName) throws SAXException {
+		long start = begin();
+		super.unparsedEntityDecl(name, publicId, systemId, notationName);
+		end(start);
+	}
+}
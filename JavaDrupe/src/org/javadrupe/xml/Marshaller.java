@@ -0,0 +1,180 @@
+package org.javadrupe.xml;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.javadrupe.reflection.Types;
+
+/** Writes plain java objects as XML.
+ * <p>
+ * Each class is inspected only once; the result is a plan containing a method handle for each
+ * bean property (public getter or public field) which is cached against the class. Marshalling
+ * an object then simply runs the plan, so there is no per-object reflection and no lookup of
+ * property names.
+ * </p><p>
+ * Classes which have a schema type in {@link Types} (or which extend or implement a class
+ * which does, such as GregorianCalendar) are written as simple content, with the value
+ * converted by {@link Types#toXmlValue(Object)}. Anything else is written as an element
+ * containing one child element per property, in property name order. Properties with a null
+ * value are omitted; arrays and iterables are written as a repeated element. Output is normally
+ * written to a {@link TransformerWriter}, but any XMLStreamWriter will do.
+ * </p><p>
+ * An object which contains itself, directly or indirectly, cannot be written; marshalling it
+ * throws an IllegalArgumentException. So does marshalling a Map, which {@link Unmarshaller}
+ * could not read back.
+ * </p>
+ * @author Jonathan Essex
+ *
+ */
+public class Marshaller {
+
+	public static final String XSI_PREFIX = "xsi";
+
+	private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+	private static class Property {
+		public final QName name;
+		public final MethodHandle getter;
+		public Property(QName name, MethodHandle getter) { this.name = name; this.getter = getter; }
+	}
+
+	private static class Plan {
+		/** Schema type; present only if the class is written as simple content */
+		public final Optional<QName> schema_type;
+		public final Property[] properties;
+		public Plan(Optional<QName> schema_type, Property[] properties) { this.schema_type = schema_type; this.properties = properties; }
+	}
+
+	private static final ClassValue<Plan> PLANS = new ClassValue<Plan>() {
+		@Override
+		protected Plan computeValue(Class<?> type) {
+			return createPlan(type);
+		}
+	};
+
+	private final boolean write_types;
+
+	private static Plan createPlan(Class<?> type) {
+		Optional<QName> schema_type = type.isEnum() ? Optional.of(Types.QN_STRING) : Types.findSchemaType(type);
+		if (schema_type.isPresent()) return new Plan(schema_type, new Property[0]);
+		if (Map.class.isAssignableFrom(type))
+			throw new IllegalArgumentException("Cannot write " + type.getName() + " as XML; maps are not supported");
+
+		TreeMap<String, MethodHandle> getters = new TreeMap<String, MethodHandle>();
+		try {
+			for (Field field : type.getFields()) {
+				if (!Modifier.isStatic(field.getModifiers()))
+					getters.put(field.getName(), Beans.unreflectGetter(field).asType(GETTER_TYPE));
+			}
+			for (Method method : type.getMethods()) {
+				String name = Beans.getGetterPropertyName(method);
+				if (name != null) getters.put(name, Beans.unreflect(method).asType(GETTER_TYPE));
+			}
+		} catch (IllegalAccessException e) {
+			throw new IllegalArgumentException("Cannot access properties of " + type.getName(), e);
+		}
+
+		return new Plan(Optional.empty(), getters.entrySet().stream()
+			.map(entry -> new Property(new QName(entry.getKey()), entry.getValue()))
+			.toArray(Property[]::new));
+	}
+
+	/** Write a value; ancestors holds the objects currently being written, to detect cycles */
+	private void writeValue(QName name, Object value, XMLStreamWriter out, Set<Object> ancestors) throws XMLStreamException {
+		if (value == null) return;
+		Class<?> type = value.getClass();
+		if (type.isArray() && type != byte[].class) {
+			int length = Array.getLength(value);
+			for (int i = 0; i < length; i++) writeValue(name, Array.get(value, i), out, ancestors);
+		} else if (value instanceof Iterable) {
+			for (Object item : (Iterable<?>)value) writeValue(name, item, out, ancestors);
+		} else {
+			out.writeStartElement(name.getPrefix(), name.getLocalPart(), name.getNamespaceURI());
+			writeContent(value, out, ancestors);
+			out.writeEndElement();
+		}
+	}
+
+	private void writeContent(Object value, XMLStreamWriter out, Set<Object> ancestors) throws XMLStreamException {
+		Plan plan = PLANS.get(value.getClass());
+		if (plan.schema_type.isPresent()) {
+			if (write_types)
+				out.writeAttribute(XSI_PREFIX, XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI, "type", Types.toXmlValue(plan.schema_type.get()));
+			out.writeCharacters(Types.toXmlValue(value));
+		} else {
+			if (!ancestors.add(value))
+				throw new IllegalArgumentException("Cannot marshal cyclic object graph: " + value.getClass().getName() + " contains itself");
+			for (Property property : plan.properties) {
+				Object property_value;
+				try {
+					property_value = (Object)property.getter.invokeExact(value);
+				} catch (RuntimeException | Error e) {
+					throw e;
+				} catch (Throwable e) {
+					throw new XMLStreamException("Cannot get property " + property.name, e);
+				}
+				writeValue(property.name, property_value, out, ancestors);
+			}
+			ancestors.remove(value);
+		}
+	}
+
+	/** Write an object as an XML element.
+	 *
+	 * @param name Name of the element to write
+	 * @param value Object to write (must not be null)
+	 * @param out Writer to which XML is written
+	 * @throws XMLStreamException
+	 */
+	public void marshal(QName name, Object value, XMLStreamWriter out) throws XMLStreamException {
+		out.writeStartElement(name.getPrefix(), name.getLocalPart(), name.getNamespaceURI());
+		if (!XMLConstants.NULL_NS_URI.equals(name.getNamespaceURI()))
+			out.writeNamespace(name.getPrefix(), name.getNamespaceURI());
+		if (write_types) {
+			out.writeNamespace(XSI_PREFIX, XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI);
+			out.writeNamespace(Types.SCHEMA_PREFIX, Types.SCHEMA_URI);
+		}
+		writeContent(value, out, Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>()));
+		out.writeEndElement();
+	}
+
+	/** Write an object as an XML element.
+	 *
+	 * The element name is the simple name of the object's class, with the first letter in lower case.
+	 *
+	 * @param value Object to write (must not be null)
+	 * @param out Writer to which XML is written
+	 * @throws XMLStreamException
+	 */
+	public void marshal(Object value, XMLStreamWriter out) throws XMLStreamException {
+		marshal(new QName(Beans.decapitalize(value.getClass().getSimpleName())), value, out);
+	}
+
+	/** Create a marshaller.
+	 *
+	 * @param write_types If true, an xsi:type attribute is written on each element with simple content.
+	 */
+	public Marshaller(boolean write_types) {
+		this.write_types = write_types;
+	}
+
+	/** Create a marshaller which does not write xsi:type attributes */
+	public Marshaller() {
+		this(false);
+	}
+}
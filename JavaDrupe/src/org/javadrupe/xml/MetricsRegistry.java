@@ -0,0 +1,125 @@
+package org.javadrupe.xml;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/** Aggregated metrics for any number of instrumented TransformerWriters.
+ * <p>
+ * Passing a registry to a TransformerWriter turns on instrumentation for that writer; a writer
+ * with no registry is not instrumented at all and pays nothing. Writers add their counters to
+ * the registry when each document ends, so the registry may be polled from any thread.
+ * </p><p>
+ * Handler latency is sampled: one in every <code>sample_interval</code> SAX events passed to the
+ * handler (of any kind, including prefix mappings and lexical events) is timed and recorded in a
+ * histogram with power-of-two nanosecond buckets. Listeners are notified with the metrics for each completed
+ * document; {@link FlightRecorderListener} records each document as a Flight Recorder event.
+ * </p>
+ * @author Jonathan Essex
+ *
+ */
+public class MetricsRegistry {
+
+	private static final int BUCKETS = 40;
+
+	private final int sample_mask;
+	private final LongAdder documents = new LongAdder();
+	private final LongAdder elements = new LongAdder();
+	private final LongAdder attributes = new LongAdder();
+	private final LongAdder characters = new LongAdder();
+	private final LongAdder namespace_declarations = new LongAdder();
+	private final LongAccumulator max_depth = new LongAccumulator(Math::max, 0);
+	private final LongAdder elapsed_nanos = new LongAdder();
+	private final LongAdder handler_nanos = new LongAdder();
+	private final LongAdder[] handler_latency = new LongAdder[BUCKETS];
+	private final CopyOnWriteArrayList<Consumer<WriterMetrics>> listeners = new CopyOnWriteArrayList<Consumer<WriterMetrics>>();
+
+	/** Create a registry.
+	 *
+	 * @param sample_interval Handler calls per timed call; rounded up to a power of two.
+	 */
+	public MetricsRegistry(int sample_interval) {
+		int interval = sample_interval <= 1 ? 1 : Integer.highestOneBit(sample_interval - 1) << 1;
+		this.sample_mask = interval - 1;
+		for (int i = 0; i < BUCKETS; i++) handler_latency[i] = new LongAdder();
+	}
+
+	/** Create a registry which times one in every 64 handler calls */
+	public MetricsRegistry() {
+		this(64);
+	}
+
+	int getSampleMask() {
+		return sample_mask;
+	}
+
+	void recordHandlerLatency(long nanos) {
+		int bucket = nanos <= 0 ? 0 : Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(nanos));
+		handler_latency[bucket].increment();
+	}
+
+	void documentCompleted(WriterMetrics metrics) {
+		documents.increment();
+		elements.add(metrics.elements);
+		attributes.add(metrics.attributes);
+		characters.add(metrics.characters);
+		namespace_declarations.add(metrics.namespace_declarations);
+		max_depth.accumulate(metrics.max_depth);
+		elapsed_nanos.add(metrics.elapsed_nanos);
+		handler_nanos.add(metrics.handler_nanos);
+		for (Consumer<WriterMetrics> listener : listeners) listener.accept(metrics);
+	}
+
+	/** Add a listener which is called with the metrics of each document as it completes.
+	 *
+	 * Listeners are called on the writer's thread, at the end of the document.
+	 */
+	public void addListener(Consumer<WriterMetrics> listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(Consumer<WriterMetrics> listener) {
+		listeners.remove(listener);
+	}
+
+	/** Number of documents completed */
+	public long getDocuments() { return documents.sum(); }
+	/** Total elements started */
+	public long getElements() { return elements.sum(); }
+	/** Total attributes written */
+	public long getAttributes() { return attributes.sum(); }
+	/** Total characters of text, CDATA and comments */
+	public long getCharacters() { return characters.sum(); }
+	/** Total namespace prefix mappings started */
+	public long getNamespaceDeclarations() { return namespace_declarations.sum(); }
+	/** Greatest element nesting depth in any document */
+	public long getMaxDepth() { return max_depth.get(); }
+	/** Total estimated time spent in transformer handlers, in nanoseconds */
+	public long getHandlerNanos() { return handler_nanos.sum(); }
+	/** Total estimated time spent producing documents, in nanoseconds */
+	public long getWriterNanos() { return Math.max(0, elapsed_nanos.sum() - handler_nanos.sum()); }
+
+	/** Histogram of sampled handler call latencies.
+	 *
+	 * @return array where element i is the number of sampled calls taking between 2^i and 2^(i+1) nanoseconds.
+	 */
+	public long[] getHandlerLatencyHistogram() {
+		long[] result = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) result[i] = handler_latency[i].sum();
+		return result;
+	}
+
+	/** Reset all counters to zero */
+	public void reset() {
+		documents.reset();
+		elements.reset();
+		attributes.reset();
+		characters.reset();
+		namespace_declarations.reset();
+		max_depth.reset();
+		elapsed_nanos.reset();
+		handler_nanos.reset();
+		for (LongAdder bucket : handler_latency) bucket.reset();
+	}
+}
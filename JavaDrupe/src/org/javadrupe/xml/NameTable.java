@@ -0,0 +1,173 @@
+package org.javadrupe.xml;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+
+/** Symbol table for interning XML names.
+ * <p>
+ * Documents typically repeat a few hundred names very many times. A NameTable holds a single
+ * QName instance for each distinct (namespace URI, local name, prefix), and for each of these
+ * caches the qualified name strings (prefix:local) for the last few prefixes used with it, so
+ * documents which bind several prefixes to the same namespace still hit the cache. Once a name has
+ * been seen, looking it up again costs one hash probe and allocates nothing.
+ * </p><p>
+ * Each TransformerWriter has its own table by default, but a table may be shared between writers
+ * (including writers on different threads) so that names are interned once for a whole application.
+ * Lookups take no lock; only adding a new name is synchronized.
+ * </p><p>
+ * Names are never evicted. A table shared by long-lived writers should either be used only with a
+ * bounded vocabulary, or be created with a maximum size; once a table is full, new names are still
+ * returned but are no longer interned.
+ * </p>
+ * @author Jonathan Essex
+ *
+ */
+public class NameTable {
+
+	private static final class Qualified {
+		public final String prefix;
+		public final String qualified_name;
+		public Qualified(String prefix, String qualified_name) { this.prefix = prefix; this.qualified_name = qualified_name; }
+	}
+
+	/** Number of prefixes for which each name caches a qualified name */
+	private static final int MAX_PREFIXES = 4;
+	private static final Qualified[] NO_PREFIXES = new Qualified[0];
+
+	private static final class Symbol {
+		public final int hash;
+		public final QName name;
+		public final Symbol next;
+		/** Qualified names for the prefixes most recently bound to this name's URI, most recent first; never modified once set */
+		public volatile Qualified[] qualified = NO_PREFIXES;
+		public Symbol(int hash, QName name, Symbol next) { this.hash = hash; this.name = name; this.next = next; }
+	}
+
+	private final int max_size;
+	private volatile Symbol[] table;
+	private int size = 0;
+	/** Names in {uri}local form which have already been parsed */
+	private final ConcurrentHashMap<String, QName> parsed = new ConcurrentHashMap<String, QName>();
+
+	private static int hash(String uri, String local_name, String prefix) {
+		int hash = (uri.hashCode() * 31 + local_name.hashCode()) * 31 + prefix.hashCode();
+		return hash ^ (hash >>> 16);
+	}
+
+	private static Symbol find(Symbol[] table, int hash, String uri, String local_name, String prefix) {
+		for (Symbol symbol = table[hash & (table.length - 1)]; symbol != null; symbol = symbol.next) {
+			QName name = symbol.name;
+			if (symbol.hash == hash
+				&& name.getLocalPart().equals(local_name)
+				&& name.getNamespaceURI().equals(uri)
+				&& name.getPrefix().equals(prefix))
+				return symbol;
+		}
+		return null;
+	}
+
+	private void resize() {
+		Symbol[] old_table = table;
+		Symbol[] new_table = new Symbol[old_table.length * 2];
+		int mask = new_table.length - 1;
+		for (Symbol bucket : old_table)
+			for (Symbol symbol = bucket; symbol != null; symbol = symbol.next)
+				new_table[symbol.hash & mask] = new Symbol(symbol.hash, symbol.name, new_table[symbol.hash & mask]);
+		table = new_table;
+	}
+
+	private synchronized Symbol add(int hash, String uri, String local_name, String prefix, QName name) {
+		Symbol symbol = find(table, hash, uri, local_name, prefix);
+		if (symbol != null) return symbol;
+		if (size >= max_size) return new Symbol(hash, name == null ? new QName(uri, local_name, prefix) : name, null);
+		if (++size > table.length * 3 / 4) resize();
+		Symbol[] current = table;
+		int index = hash & (current.length - 1);
+		symbol = new Symbol(hash, name == null ? new QName(uri, local_name, prefix) : name, current[index]);
+		current[index] = symbol;
+		// Volatile write so that readers see the new chain
+		table = current;
+		return symbol;
+	}
+
+	private Symbol getSymbol(String uri, String local_name, String prefix, QName name) {
+		if (uri == null) uri = XMLConstants.NULL_NS_URI;
+		if (prefix == null) prefix = XMLConstants.DEFAULT_NS_PREFIX;
+		int hash = hash(uri, local_name, prefix);
+		Symbol symbol = find(table, hash, uri, local_name, prefix);
+		return symbol != null ? symbol : add(hash, uri, local_name, prefix, name);
+	}
+
+	/** Get the interned QName for a name.
+	 *
+	 * @param uri Namespace URI (null is treated as no namespace)
+	 * @param local_name Local name
+	 * @param prefix Prefix (null is treated as the default prefix)
+	 * @return A QName which is the same instance for every call with the same arguments.
+	 */
+	public QName get(String uri, String local_name, String prefix) {
+		return getSymbol(uri, local_name, prefix, null).name;
+	}
+
+	/** Get the interned QName equal to a given name.
+	 *
+	 * @param name Name to intern
+	 * @return A QName equal to name (with the same prefix) which is the same instance for every equal name.
+	 */
+	public QName get(QName name) {
+		return getSymbol(name.getNamespaceURI(), name.getLocalPart(), name.getPrefix(), name).name;
+	}
+
+	/** Get the interned QName for a name in the {uri}local form produced by QName.toString().
+	 *
+	 * Equivalent to get(QName.valueOf(name)), but each distinct string is only parsed once.
+	 *
+	 * @param name Name to parse and intern
+	 * @return A QName (with the default prefix) which is the same instance for every call with an equal string.
+	 */
+	public QName valueOf(String name) {
+		QName result = parsed.get(name);
+		if (result == null) {
+			result = get(QName.valueOf(name));
+			if (parsed.size() < max_size) parsed.putIfAbsent(name, result);
+		}
+		return result;
+	}
+
+	/** Get the qualified name (as used in SAX events) for a name, given the prefix bound to its namespace.
+	 *
+	 * @param name Name to qualify
+	 * @param prefix Prefix bound to the namespace URI of name
+	 * @return prefix:local, or local if prefix is the default prefix.
+	 */
+	public String getQualifiedName(QName name, String prefix) {
+		if (prefix.isEmpty()) return name.getLocalPart();
+		Symbol symbol = getSymbol(name.getNamespaceURI(), name.getLocalPart(), name.getPrefix(), name);
+		Qualified[] cached = symbol.qualified;
+		for (Qualified qualified : cached)
+			if (qualified.prefix.equals(prefix)) return qualified.qualified_name;
+		Qualified qualified = new Qualified(prefix, prefix + ":" + name.getLocalPart());
+		// Copy on write, dropping the least recently added prefix if full; a racing update may be lost, which is harmless
+		Qualified[] updated = new Qualified[Math.min(cached.length + 1, MAX_PREFIXES)];
+		updated[0] = qualified;
+		System.arraycopy(cached, 0, updated, 1, updated.length - 1);
+		symbol.qualified = updated;
+		return qualified.qualified_name;
+	}
+
+	/** Create a new, empty name table which holds at most max_size names.
+	 *
+	 * @param max_size Maximum number of names interned
+	 */
+	public NameTable(int max_size) {
+		this.max_size = max_size;
+		this.table = new Symbol[256];
+	}
+
+	/** Create a new, empty name table with no maximum size */
+	public NameTable() {
+		this(Integer.MAX_VALUE);
+	}
+}
@@ -0,0 +1,82 @@
+package org.javadrupe.xml;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+
+/** Element filter which keeps only the elements on a set of simple paths.
+ * <p>
+ * Paths are written as /step/step/..., where each step is a local name, a prefix:local name, or *
+ * to match any element. Prefixes are resolved with the map given to the constructor; unprefixed steps
+ * match elements in no namespace. An element is kept if it is on the way to a projected path (all its
+ * ancestors are kept too, so the structure of the document is preserved) or if it is at the end of a
+ * projected path, in which case its whole subtree is kept. Everything else is dropped.
+ * </p><p>
+ * For example, with paths /order/customer and /order/line/price, the customer element of an order is
+ * written in full, line elements are written with only their price children, and all other children
+ * of order are dropped.
+ * </p>
+ * @author Jonathan Essex
+ *
+ */
+public class PathProjection implements ElementFilter {
+
+	private static final QName ANY = new QName("*");
+
+	private final List<QName[]> paths = new ArrayList<QName[]>();
+
+	private static QName parseStep(String step, Map<String,String> namespaces) {
+		if (step.equals("*")) return ANY;
+		int colon = step.indexOf(':');
+		if (colon < 0) return new QName(step);
+		String prefix = step.substring(0, colon);
+		String uri = namespaces.get(prefix);
+		if (uri == null) throw new IllegalArgumentException("Unknown prefix " + prefix + " in " + step);
+		return new QName(uri, step.substring(colon + 1), prefix);
+	}
+
+	private static boolean matches(QName step, QName name) {
+		return step == ANY || (step.getLocalPart().equals(name.getLocalPart()) && step.getNamespaceURI().equals(name.getNamespaceURI()));
+	}
+
+	@Override
+	public Action filter(List<QName> path) {
+		Action result = Action.EXCLUDE;
+		int depth = path.size();
+		for (QName[] projected : paths) {
+			if (depth > projected.length) continue;
+			int i = 0;
+			while (i < depth && matches(projected[i], path.get(i))) i++;
+			if (i == depth) {
+				if (depth == projected.length) return Action.INCLUDE_ALL;
+				result = Action.INCLUDE;
+			}
+		}
+		return result;
+	}
+
+	/** Create a projection.
+	 *
+	 * @param namespaces Map from prefix to namespace URI, used to resolve prefixes in paths
+	 * @param paths Paths to keep, in the form /step/step/...
+	 */
+	public PathProjection(Map<String,String> namespaces, String... paths) {
+		for (String path : paths) {
+			String[] steps = path.startsWith("/") ? path.substring(1).split("/") : path.split("/");
+			QName[] projected = new QName[steps.length];
+			for (int i = 0; i < steps.length; i++) projected[i] = parseStep(steps[i], namespaces);
+			this.paths.add(projected);
+		}
+	}
+
+	/** Create a projection whose paths contain only elements in no namespace.
+	 *
+	 * @param paths Paths to keep, in the form /step/step/...
+	 */
+	public PathProjection(String... paths) {
+		this(Collections.<String,String>emptyMap(), paths);
+	}
+}
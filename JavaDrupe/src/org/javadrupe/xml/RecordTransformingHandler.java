@@ -0,0 +1,439 @@
+package org.javadrupe.xml;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+
+/** Applies a stylesheet to each record of a large document separately.
+ * <p>
+ * A TransformerHandler builds a tree of the whole input document before transforming it, which
+ * is not an option for documents containing millions of records. This handler instead treats
+ * each element with the given record name as a document in its own right: the record subtree is
+ * transformed by the compiled stylesheet and the result is spliced into the output in place of
+ * the record. Everything outside records (the envelope) is passed through to the output handler
+ * untransformed. Memory use is bounded by the size of one record rather than the whole document.
+ * </p><p>
+ * Namespace bindings in scope at the start of a record are declared at the start of each record
+ * document, so the stylesheet sees the same names it would in the whole document. Records nested
+ * inside records are treated as part of the outer record.
+ * </p><p>
+ * Optionally, records can be transformed in parallel on an executor. Output order is preserved;
+ * at most <code>max_in_flight</code> records are buffered at any one time.
+ * </p><p>
+ * Typical usage is <code>new TransformerWriter(new RecordTransformingHandler(...))</code>, where
+ * the output handler is an identity TransformerHandler with the final Result.
+ * </p><p>
+ * In incremental mode (see {@link #setCache(RecordingCache, String)}) each record is recorded and
+ * hashed as it is written. If the cache holds output for a record with the same hash and stylesheet
+ * version, that output is replayed instead of transforming the record again. Saving the cache
+ * between runs means that regenerating a large document costs time in proportion to the number
+ * of records which have changed.
+ * </p>
+ * @author Jonathan Essex
+ *
+ */
+public class RecordTransformingHandler extends ForwardingHandler {
+
+	private static class Mapping {
+		public final String prefix;
+		public final String uri;
+		public Mapping(String prefix, String uri) { this.prefix = prefix; this.uri = uri; }
+	}
+
+	private static class Pending {
+		public final Future<SaxBuffer> events;
+		/** Splice into which record output is replayed; null for envelope events */
+		public final Splice splice;
+		public Pending(Future<SaxBuffer> events, Splice splice) { this.events = events; this.splice = splice; }
+	}
+
+	/** Passes record output through to the target, without its document events.
+	 * 
+	 * Prefix mappings which the envelope already has in scope at the position of the record are 
+	 * also dropped, whether they arrive as prefix mapping events or as xmlns attributes, so that 
+	 * they are not declared again on every record.
+	 */
+	private static class Splice extends ForwardingHandler {
+		private final ArrayList<Mapping> outer_scope;
+		private final ArrayList<Mapping> started = new ArrayList<Mapping>();
+		private final ArrayList<Boolean> forwarded = new ArrayList<Boolean>();
+		public Splice(TransformerHandler target, ArrayList<Mapping> outer_scope) { super(target); this.outer_scope = outer_scope; }
+		private boolean isInScope(String prefix, String uri) {
+			for (int i = outer_scope.size() - 1; i >= 0; i--) {
+				Mapping mapping = outer_scope.get(i);
+				if (mapping.prefix.equals(prefix)) return mapping.uri.equals(uri);
+			}
+			return false;
+		}
+		@Override
+		public void setDocumentLocator(Locator locator) { }
+		@Override
+		public void startDocument() { }
+		@Override
+		public void endDocument() { }
+		@Override
+		public void startPrefixMapping(String prefix, String uri) throws SAXException {
+			boolean forward = !isInScope(prefix, uri);
+			started.add(new Mapping(prefix, uri));
+			forwarded.add(forward);
+			if (forward) super.startPrefixMapping(prefix, uri);
+		}
+		@Override
+		public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+			AttributesImpl filtered = null;
+			for (int i = atts.getLength() - 1; i >= 0; i--) {
+				String name = atts.getQName(i);
+				if (name.startsWith(XMLConstants.XMLNS_ATTRIBUTE) && (name.length() == 5 || name.charAt(5) == ':')) {
+					String prefix = name.length() == 5 ? XMLConstants.DEFAULT_NS_PREFIX : name.substring(6);
+					if (isInScope(prefix, atts.getValue(i))) {
+						if (filtered == null) filtered = new AttributesImpl(atts);
+						filtered.removeAttribute(i);
+					}
+				}
+			}
+			super.startElement(uri, localName, qName, filtered == null ? atts : filtered);
+		}
+		@Override
+		public void endPrefixMapping(String prefix) throws SAXException {
+			for (int i = started.size() - 1; i >= 0; i--) {
+				if (started.get(i).prefix.equals(prefix)) {
+					started.remove(i);
+					if (forwarded.remove(i)) super.endPrefixMapping(prefix);
+					return;
+				}
+			}
+			super.endPrefixMapping(prefix);
+		}
+	}
+
+	private final SAXTransformerFactory factory;
+	private final Templates templates;
+	private final QName record;
+	private final ExecutorService executor;
+	private final int max_in_flight;
+
+	/** Namespace bindings in scope, innermost last */
+	private final ArrayList<Mapping> scope = new ArrayList<Mapping>();
+	/** Bindings started for the next element */
+	private final ArrayList<Mapping> pending_mappings = new ArrayList<Mapping>();
+	private final ArrayDeque<Pending> queue = new ArrayDeque<Pending>();
+
+	private ContentHandler content;
+	private LexicalHandler lexical;
+	private SaxBuffer outer_buffer;
+	private SaxBuffer record_buffer;
+	private Splice record_splice;
+	private int depth = 0;
+	private int record_mappings = 0;
+	private int skip_end_mappings = 0;
+
+	private RecordingCache cache;
+	private String stylesheet_version;
+	private EventRecorder recorder;
+	private MessageDigest digest;
+	private int reused_records = 0;
+	private int transformed_records = 0;
+
+	private boolean isParallel() {
+		return executor != null;
+	}
+
+	private void setOuter() {
+		if (isParallel()) {
+			content = outer_buffer;
+			lexical = outer_buffer;
+		} else {
+			content = target;
+			lexical = target;
+		}
+	}
+
+	private boolean isRecord(String uri, String localName) {
+		return record.getLocalPart().equals(localName) && record.getNamespaceURI().equals(uri);
+	}
+
+	private static SAXException toSAXException(Throwable e) {
+		if (e instanceof SAXException) return (SAXException)e;
+		if (e instanceof Exception) return new SAXException((Exception)e);
+		return new SAXException(e.toString());
+	}
+
+	private void drain(boolean all) throws SAXException {
+		while (!queue.isEmpty()) {
+			Pending head = queue.peek();
+			if (!all && !head.events.isDone() && queue.size() <= max_in_flight) return;
+			SaxBuffer events;
+			try {
+				events = head.events.get();
+			} catch (ExecutionException e) {
+				throw toSAXException(e.getCause());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new SAXException(e);
+			}
+			if (head.splice != null) events.replay(head.splice, head.splice);
+			else events.replay(target, target);
+			queue.remove();
+		}
+	}
+
+	private TransformerHandler newRecordHandler() throws SAXException {
+		try {
+			return factory.newTransformerHandler(templates);
+		} catch (TransformerConfigurationException e) {
+			throw new SAXException(e);
+		}
+	}
+
+	private void startRecord() throws SAXException {
+		// The record's own bindings (the pending ones) were never sent to the output
+		record_mappings = pending_mappings.size();
+		record_splice = new Splice(target, new ArrayList<Mapping>(scope.subList(0, scope.size() - record_mappings)));
+		if (isParallel() && !outer_buffer.isEmpty()) {
+			queue.add(new Pending(CompletableFuture.completedFuture(outer_buffer), null));
+			outer_buffer = new SaxBuffer();
+		}
+		if (cache != null) {
+			recorder.reset();
+			content = recorder;
+			lexical = recorder;
+		} else if (isParallel()) {
+			record_buffer = new SaxBuffer();
+			content = record_buffer;
+			lexical = record_buffer;
+		} else {
+			TransformerHandler handler = newRecordHandler();
+			SAXResult result = new SAXResult(record_splice);
+			result.setLexicalHandler(record_splice);
+			handler.setResult(result);
+			content = handler;
+			lexical = handler;
+		}
+		content.startDocument();
+		for (Mapping mapping : scope) content.startPrefixMapping(mapping.prefix, mapping.uri);
+	}
+
+	private void endRecord() throws SAXException {
+		for (int i = scope.size() - 1; i >= 0; i--) content.endPrefixMapping(scope.get(i).prefix);
+		content.endDocument();
+		if (cache != null) {
+			endCachedRecord();
+		} else if (isParallel()) {
+			TransformerHandler handler = newRecordHandler();
+			SaxBuffer output = new SaxBuffer();
+			SAXResult result = new SAXResult(output);
+			result.setLexicalHandler(output);
+			handler.setResult(result);
+			SaxBuffer input = record_buffer;
+			record_buffer = null;
+			queue.add(new Pending(executor.submit(() -> { input.replay(handler, handler); return output; }), record_splice));
+		}
+		// The record's own bindings have already been ended in the record document
+		skip_end_mappings = record_mappings;
+		record_splice = null;
+		setOuter();
+		if (isParallel()) drain(false);
+	}
+
+	/** Key under which the output for a record is cached */
+	private String getKey(EventRecording input) {
+		digest.reset();
+		digest.update(stylesheet_version.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte)0);
+		input.digest(digest);
+		return Base64.getEncoder().encodeToString(digest.digest());
+	}
+
+	/** Transform a recorded record with a handler from newRecordHandler, and cache the output */
+	private EventRecording transformRecord(TransformerHandler handler, EventRecording input, String key) throws SAXException {
+		EventRecorder output = new EventRecorder();
+		SAXResult result = new SAXResult(output);
+		result.setLexicalHandler(output);
+		handler.setResult(result);
+		input.replay(handler);
+		EventRecording recording = output.getRecording();
+		cache.put(key, recording);
+		return recording;
+	}
+
+	private void endCachedRecord() throws SAXException {
+		EventRecording input = recorder.getRecording();
+		String key = getKey(input);
+		EventRecording cached = cache.get(key);
+		if (cached != null) reused_records++;
+		else transformed_records++;
+		if (isParallel()) {
+			SaxBuffer output = new SaxBuffer();
+			if (cached != null) {
+				output.append(cached);
+				queue.add(new Pending(CompletableFuture.completedFuture(output), record_splice));
+			} else {
+				// The factory is not thread safe, so the handler is created here rather than in the task
+				TransformerHandler handler = newRecordHandler();
+				queue.add(new Pending(executor.submit(() -> { output.append(transformRecord(handler, input, key)); return output; }), record_splice));
+			}
+		} else {
+			(cached != null ? cached : transformRecord(newRecordHandler(), input, key)).replay(record_splice, record_splice);
+		}
+	}
+
+	/** Enable incremental mode.
+	 *
+	 * Must be called before the document is started. The stylesheet version is part of the key under
+	 * which output is cached, and should be changed whenever the stylesheet or its parameters change.
+	 *
+	 * @param cache Cache of transformed records, or null to transform every record
+	 * @param stylesheet_version Version of the stylesheet
+	 */
+	public void setCache(RecordingCache cache, String stylesheet_version) {
+		this.cache = cache;
+		this.stylesheet_version = stylesheet_version;
+		if (cache != null && recorder == null) {
+			recorder = new EventRecorder();
+			try {
+				digest = MessageDigest.getInstance("SHA-256");
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+	/** Number of records whose output was taken from the cache */
+	public int getReusedRecords() {
+		return reused_records;
+	}
+
+	/** Number of records which were transformed */
+	public int getTransformedRecords() {
+		return transformed_records;
+	}
+
+	@Override
+	public void startDocument() throws SAXException {
+		if (isParallel()) outer_buffer = new SaxBuffer();
+		setOuter();
+		content.startDocument();
+	}
+
+	@Override
+	public void endDocument() throws SAXException {
+		content.endDocument();
+		if (isParallel()) {
+			queue.add(new Pending(CompletableFuture.completedFuture(outer_buffer), null));
+			outer_buffer = null;
+			drain(true);
+		}
+	}
+
+	@Override
+	public void startPrefixMapping(String prefix, String uri) throws SAXException {
+		Mapping mapping = new Mapping(prefix, uri);
+		scope.add(mapping);
+		pending_mappings.add(mapping);
+	}
+
+	@Override
+	public void endPrefixMapping(String prefix) throws SAXException {
+		for (int i = scope.size() - 1; i >= 0; i--) {
+			if (scope.get(i).prefix.equals(prefix)) {
+				scope.remove(i);
+				break;
+			}
+		}
+		if (depth == 0 && skip_end_mappings > 0) skip_end_mappings--;
+		else content.endPrefixMapping(prefix);
+	}
+
+	@Override
+	public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+		if (depth == 0 && isRecord(uri, localName)) {
+			startRecord();
+		} else {
+			for (Mapping mapping : pending_mappings) content.startPrefixMapping(mapping.prefix, mapping.uri);
+		}
+		pending_mappings.clear();
+		if (depth > 0 || isRecord(uri, localName)) depth++;
+		content.startElement(uri, localName, qName, atts);
+	}
+
+	@Override
+	public void endElement(String uri, String localName, String qName) throws SAXException {
+		content.endElement(uri, localName, qName);
+		if (depth > 0 && --depth == 0) endRecord();
+	}
+
+	@Override
+	public void characters(char[] ch, int start, int length) throws SAXException { content.characters(ch, start, length); }
+	@Override
+	public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException { content.ignorableWhitespace(ch, start, length); }
+	@Override
+	public void processingInstruction(String target, String data) throws SAXException { content.processingInstruction(target, data); }
+	@Override
+	public void skippedEntity(String name) throws SAXException { content.skippedEntity(name); }
+	@Override
+	public void startEntity(String name) throws SAXException { lexical.startEntity(name); }
+	@Override
+	public void endEntity(String name) throws SAXException { lexical.endEntity(name); }
+	@Override
+	public void startCDATA() throws SAXException { lexical.startCDATA(); }
+	@Override
+	public void endCDATA() throws SAXException { lexical.endCDATA(); }
+	@Override
+	public void comment(char[] ch, int start, int length) throws SAXException { lexical.comment(ch, start, length); }
+	@Override
+	public void startDTD(String name, String publicId, String systemId) throws SAXException { lexical.startDTD(name, publicId, systemId); }
+	@Override
+	public void endDTD() throws SAXException { lexical.endDTD(); }
+
+	/** Create a handler which transforms records in parallel.
+	 *
+	 * @param factory Factory used to create a transformer for each record
+	 * @param templates Compiled stylesheet applied to each record
+	 * @param record Name of record element
+	 * @param output Handler to which the envelope and transformed records are sent
+	 * @param executor Executor on which records are transformed
+	 * @param max_in_flight Maximum number of records buffered awaiting output
+	 */
+	public RecordTransformingHandler(SAXTransformerFactory factory, Templates templates, QName record, TransformerHandler output, ExecutorService executor, int max_in_flight) {
+		super(output);
+		this.factory = factory;
+		this.templates = templates;
+		this.record = record;
+		this.executor = executor;
+		this.max_in_flight = max_in_flight;
+		setOuter();
+	}
+
+	/** Create a handler which transforms records one at a time, on the writing thread.
+	 *
+	 * @param factory Factory used to create a transformer for each record
+	 * @param templates Compiled stylesheet applied to each record
+	 * @param record Name of record element
+	 * @param output Handler to which the envelope and transformed records are sent
+	 */
+	public RecordTransformingHandler(SAXTransformerFactory factory, Templates templates, QName record, TransformerHandler output) {
+		this(factory, templates, record, output, null, 0);
+	}
+}
@@ -0,0 +1,134 @@
+package org.javadrupe.xml;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** Cache of event recordings, keyed by an id chosen by the caller.
+ * <p>
+ * The cache is bounded by the total size in bytes of the recordings it holds. When it is full,
+ * the least recently used recordings are discarded. A recording larger than the whole cache is
+ * not stored. The cache is safe for use by several threads.
+ * </p><p>
+ * The contents of the cache can be saved to a file and loaded again later, for example to keep
+ * the output of {@link RecordTransformingHandler} in incremental mode between runs.
+ * </p>
+ * @author Jonathan Essex
+ *
+ */
+public class RecordingCache {
+
+	private final long max_bytes;
+	private long bytes = 0;
+	private final LinkedHashMap<String, EventRecording> recordings = new LinkedHashMap<String, EventRecording>(16, 0.75f, true);
+
+	private void evict() {
+		Iterator<Map.Entry<String, EventRecording>> entries = recordings.entrySet().iterator();
+		while (bytes > max_bytes && entries.hasNext()) {
+			bytes -= entries.next().getValue().size();
+			entries.remove();
+		}
+	}
+
+	/** Get a recording.
+	 *
+	 * @param id Id under which the recording was stored
+	 * @return the recording, or null if there is no recording with that id in the cache
+	 */
+	public synchronized EventRecording get(String id) {
+		return recordings.get(id);
+	}
+
+	/** Store a recording, replacing any recording with the same id.
+	 *
+	 * @param id Id under which to store the recording
+	 * @param recording Recording to store
+	 */
+	public synchronized void put(String id, EventRecording recording) {
+		EventRecording previous = recordings.remove(id);
+		if (previous != null) bytes -= previous.size();
+		if (recording.size() > max_bytes) return;
+		recordings.put(id, recording);
+		bytes += recording.size();
+		evict();
+	}
+
+	/** Remove a recording.
+	 *
+	 * @param id Id of recording to remove
+	 */
+	public synchronized void remove(String id) {
+		EventRecording previous = recordings.remove(id);
+		if (previous != null) bytes -= previous.size();
+	}
+
+	/** Remove all recordings. */
+	public synchronized void clear() {
+		recordings.clear();
+		bytes = 0;
+	}
+
+	/** Save the contents of the cache to a file.
+	 *
+	 * @param path File to write
+	 * @throws IOException
+	 */
+	public synchronized void save(Path path) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+			out.writeInt(recordings.size());
+			// Least recently used first, so that loading preserves the order of use
+			for (Map.Entry<String, EventRecording> entry : recordings.entrySet()) {
+				out.writeUTF(entry.getKey());
+				entry.getValue().writeTo(out);
+			}
+		}
+	}
+
+	/** Load recordings previously saved to a file into the cache.
+	 *
+	 * Loaded recordings are added as if by put, so if the file holds more than the cache
+	 * can, the least recently used recordings are discarded.
+	 *
+	 * @param path File to read
+	 * @throws IOException
+	 */
+	public synchronized void load(Path path) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				String id = in.readUTF();
+				put(id, EventRecording.readFrom(in));
+			}
+		}
+	}
+
+	/** Number of recordings in the cache */
+	public synchronized int size() {
+		return recordings.size();
+	}
+
+	/** Total size in bytes of the recordings in the cache */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	/** Maximum total size in bytes of the recordings in the cache */
+	public long getMaxBytes() {
+		return max_bytes;
+	}
+
+	/** Create a cache.
+	 *
+	 * @param max_bytes Maximum total size in bytes of the recordings held
+	 */
+	public RecordingCache(long max_bytes) {
+		this.max_bytes = max_bytes;
+	}
+}
@@ -0,0 +1,156 @@
+package org.javadrupe.xml;
+
+import java.util.ArrayList;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+
+/** In-memory buffer of SAX events.
+ *
+ * Captures content and lexical events (copying any character arrays and attributes, which
+ * producers are free to reuse) so they can be replayed later, possibly on another thread.
+ * Used to hand sections of a document between threads.
+ *
+ * @author Jonathan Essex
+ *
+ */
+class SaxBuffer implements ContentHandler, LexicalHandler {
+
+	@FunctionalInterface
+	private interface Event {
+		void replay(ContentHandler content, LexicalHandler lexical) throws SAXException;
+	}
+
+	private static final Attributes EMPTY_ATTRIBUTES = new AttributesImpl();
+
+	private final ArrayList<Event> events = new ArrayList<Event>();
+
+	public boolean isEmpty() {
+		return events.isEmpty();
+	}
+
+	public int size() {
+		return events.size();
+	}
+
+	/** Replay buffered events.
+	 *
+	 * @param content Handler for content events
+	 * @param lexical Handler for lexical events, or null to drop them
+	 * @throws SAXException
+	 */
+	public void replay(ContentHandler content, LexicalHandler lexical) throws SAXException {
+		for (Event event : events) event.replay(content, lexical);
+	}
+
+	/** Append the events in a recording.
+	 *
+	 * The recording is not copied; it is replayed in full when this buffer is replayed.
+	 *
+	 * @param recording Recording to append
+	 */
+	public void append(EventRecording recording) {
+		events.add((content, lexical) -> recording.replay(content, lexical));
+	}
+
+	@Override
+	public void setDocumentLocator(Locator locator) {
+		// Locator is not valid after the event, so don't buffer it.
+	}
+
+	@Override
+	public void startDocument() throws SAXException {
+		events.add((content, lexical) -> content.startDocument());
+	}
+
+	@Override
+	public void endDocument() throws SAXException {
+		events.add((content, lexical) -> content.endDocument());
+	}
+
+	@Override
+	public void startPrefixMapping(String prefix, String uri) throws SAXException {
+		events.add((content, lexical) -> content.startPrefixMapping(prefix, uri));
+	}
+
+	@Override
+	public void endPrefixMapping(String prefix) throws SAXException {
+		events.add((content, lexical) -> content.endPrefixMapping(prefix));
+	}
+
+	@Override
+	public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+		Attributes copy = atts.getLength() == 0 ? EMPTY_ATTRIBUTES : new AttributesImpl(atts);
+		events.add((content, lexical) -> content.startElement(uri, localName, qName, copy));
+	}
+
+	@Override
+	public void endElement(String uri, String localName, String qName) throws SAXException {
+		events.add((content, lexical) -> content.endElement(uri, localName, qName));
+	}
+
+	@Override
+	public void characters(char[] ch, int start, int length) throws SAXException {
+		char[] copy = new char[length];
+		System.arraycopy(ch, start, copy, 0, length);
+		events.add((content, lexical) -> content.characters(copy, 0, copy.length));
+	}
+
+	@Override
+	public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+		char[] copy = new char[length];
+		System.arraycopy(ch, start, copy, 0, length);
+		events.add((content, lexical) -> content.ignorableWhitespace(copy, 0, copy.length));
+	}
+
+	@Override
+	public void processingInstruction(String target, String data) throws SAXException {
+		events.add((content, lexical) -> content.processingInstruction(target, data));
+	}
+
+	@Override
+	public void skippedEntity(String name) throws SAXException {
+		events.add((content, lexical) -> content.skippedEntity(name));
+	}
+
+	@Override
+	public void startDTD(String name, String publicId, String systemId) throws SAXException {
+		events.add((content, lexical) -> { if (lexical != null) lexical.startDTD(name, publicId, systemId); });
+	}
+
+	@Override
+	public void endDTD() throws SAXException {
+		events.add((content, lexical) -> { if (lexical != null) lexical.endDTD(); });
+	}
+
+	@Override
+	public void startEntity(String name) throws SAXException {
+		events.add((content, lexical) -> { if (lexical != null) lexical.startEntity(name); });
+	}
+
+	@Override
+	public void endEntity(String name) throws SAXException {
+		events.add((content, lexical) -> { if (lexical != null) lexical.endEntity(name); });
+	}
+
+	@Override
+	public void startCDATA() throws SAXException {
+		events.add((content, lexical) -> { if (lexical != null) lexical.startCDATA(); });
+	}
+
+	@Override
+	public void endCDATA() throws SAXException {
+		events.add((content, lexical) -> { if (lexical != null) lexical.endCDATA(); });
+	}
+
+	@Override
+	public void comment(char[] ch, int start, int length) throws SAXException {
+		char[] copy = new char[length];
+		System.arraycopy(ch, start, copy, 0, length);
+		events.add((content, lexical) -> { if (lexical != null) lexical.comment(copy, 0, copy.length); });
+	}
+}
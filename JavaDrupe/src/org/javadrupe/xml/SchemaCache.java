@@ -0,0 +1,67 @@
+package org.javadrupe.xml;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+
+import org.xml.sax.SAXException;
+
+/** Cache of compiled schemas, keyed by system id.
+ * <p>
+ * Compiling a schema is expensive, but a compiled Schema is thread safe and can be used to
+ * validate any number of documents at once, so each schema only needs to be compiled once.
+ * </p>
+ * @see ValidatingHandler
+ * @author Jonathan Essex
+ *
+ */
+public class SchemaCache {
+
+	private final SchemaFactory factory;
+	private final ConcurrentHashMap<String, Schema> schemas = new ConcurrentHashMap<String, Schema>();
+
+	/** Get a compiled schema, compiling it if it is not already in the cache.
+	 *
+	 * @param system_id System id (URL) of the schema
+	 * @return compiled schema
+	 * @throws SAXException if the schema cannot be compiled
+	 */
+	public Schema getSchema(String system_id) throws SAXException {
+		Schema schema = schemas.get(system_id);
+		if (schema == null) {
+			// SchemaFactory is not thread safe
+			synchronized (factory) {
+				schema = schemas.get(system_id);
+				if (schema == null) {
+					schema = factory.newSchema(new StreamSource(system_id));
+					schemas.put(system_id, schema);
+				}
+			}
+		}
+		return schema;
+	}
+
+	/** Remove a schema from the cache, so that it will be compiled again when next used.
+	 *
+	 * @param system_id System id (URL) of the schema
+	 */
+	public void remove(String system_id) {
+		schemas.remove(system_id);
+	}
+
+	/** Create a cache of schemas compiled with the given factory.
+	 *
+	 * @param factory Factory used to compile schemas
+	 */
+	public SchemaCache(SchemaFactory factory) {
+		this.factory = factory;
+	}
+
+	/** Create a cache of W3C XML Schemas. */
+	public SchemaCache() {
+		this(SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI));
+	}
+}
@@ -0,0 +1,307 @@
+package org.javadrupe.xml;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import javax.xml.transform.Result;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.sax.TransformerHandler;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+
+/** TransformerHandler which sends every event to several other TransformerHandlers.
+ * <p>
+ * Lets one pass of document generation feed several stylesheets, each with its own Result.
+ * Usually used through {@link TeeWriter}.
+ * </p><p>
+ * By default each event is passed to each branch in turn, on the writing thread. If an executor is
+ * supplied, each branch instead runs as a task on the executor: events are collected into batches
+ * which are passed to each branch through its own bounded queue, so that the branches transform in
+ * parallel with each other and with the producer. Errors in a branch are reported at the end of the
+ * document. If the producer fails before the end of the document, it must call {@link #abort()} (or 
+ * close the TeeWriter) so that the branch tasks stop and release their threads.
+ * </p>
+ * @author Jonathan Essex
+ *
+ */
+public class TeeHandler implements TransformerHandler {
+
+	private static final int BATCH_SIZE = 1024;
+	private static final int QUEUE_CAPACITY = 16;
+	/** Marks end of events in a branch queue */
+	private static final SaxBuffer END = new SaxBuffer();
+
+	private final TransformerHandler[] branches;
+	private final ExecutorService executor;
+	private BlockingQueue<SaxBuffer>[] queues;
+	private Future<?>[] tasks;
+	private SaxBuffer batch;
+
+	private static void runBranch(TransformerHandler branch, BlockingQueue<SaxBuffer> queue) throws SAXException, InterruptedException {
+		try {
+			for (SaxBuffer events = queue.take(); events != END; events = queue.take())
+				events.replay(branch, branch);
+		} catch (InterruptedException e) {
+			// Aborted
+			throw e;
+		} catch (Throwable e) {
+			// Keep taking from the queue so the producer is not blocked on a failed branch
+			while (queue.take() != END);
+			throw e;
+		}
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private void startBranches() {
+		queues = new BlockingQueue[branches.length];
+		tasks = new Future<?>[branches.length];
+		for (int i = 0; i < branches.length; i++) {
+			BlockingQueue<SaxBuffer> queue = new ArrayBlockingQueue<SaxBuffer>(QUEUE_CAPACITY);
+			TransformerHandler branch = branches[i];
+			queues[i] = queue;
+			tasks[i] = executor.submit(() -> { runBranch(branch, queue); return null; });
+		}
+		batch = new SaxBuffer();
+	}
+
+	private void send(SaxBuffer events) throws SAXException {
+		try {
+			for (BlockingQueue<SaxBuffer> queue : queues) queue.put(events);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			abort();
+			throw new SAXException(e);
+		}
+	}
+
+	private void flushIfFull() throws SAXException {
+		if (batch.size() >= BATCH_SIZE) {
+			send(batch);
+			batch = new SaxBuffer();
+		}
+	}
+
+	private void finishBranches() throws SAXException {
+		send(batch);
+		send(END);
+		batch = null;
+		SAXException error = null;
+		for (Future<?> task : tasks) {
+			try {
+				task.get();
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof Error) throw (Error)cause;
+				if (error == null) {
+					if (cause instanceof SAXException) error = (SAXException)cause;
+					else if (cause instanceof Exception) error = new SAXException((Exception)cause);
+					// Some other Throwable; SAXException can only hold an Exception
+					else error = new SAXException(new RuntimeException(cause));
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				for (Future<?> remaining : tasks) remaining.cancel(true);
+				throw new SAXException(e);
+			}
+		}
+		if (error != null) throw error;
+	}
+
+	/** Abandon the current document.
+	 * 
+	 * Cancels the branch tasks, so that they release their threads. Any further events in the document
+	 * cause a SAXException. Does nothing if no document is in progress or if branches are not run on an 
+	 * executor.
+	 */
+	public void abort() {
+		if (batch == null) return;
+		queues = null;
+		batch = null;
+		for (Future<?> task : tasks) task.cancel(true);
+	}
+
+	/** True if events are collected into batches for branches running on the executor */
+	private boolean isBatching() throws SAXException {
+		if (executor == null) return false;
+		if (batch == null) throw new SAXException("No document in progress; it has ended or was aborted");
+		return true;
+	}
+
+	@Override
+	public void setDocumentLocator(Locator locator) {
+		if (executor == null) for (TransformerHandler branch : branches) branch.setDocumentLocator(locator);
+	}
+
+	@Override
+	public void startDocument() throws SAXException {
+		if (executor != null) {
+			startBranches();
+			batch.startDocument();
+		} else for (TransformerHandler branch : branches) branch.startDocument();
+	}
+
+	@Override
+	public void endDocument() throws SAXException {
+		if (isBatching()) {
+			batch.endDocument();
+			finishBranches();
+		} else for (TransformerHandler branch : branches) branch.endDocument();
+	}
+
+	@Override
+	public void startPrefixMapping(String prefix, String uri) throws SAXException {
+		if (isBatching()) batch.startPrefixMapping(prefix, uri);
+		else for (TransformerHandler branch : branches) branch.startPrefixMapping(prefix, uri);
+	}
+
+	@Override
+	public void endPrefixMapping(String prefix) throws SAXException {
+		if (isBatching()) batch.endPrefixMapping(prefix);
+		else for (TransformerHandler branch : branches) branch.endPrefixMapping(prefix);
+	}
+
+	@Override
+	public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+		if (isBatching()) {
+			batch.startElement(uri, localName, qName, atts);
+			flushIfFull();
+		} else for (TransformerHandler branch : branches) branch.startElement(uri, localName, qName, atts);
+	}
+
+	@Override
+	public void endElement(String uri, String localName, String qName) throws SAXException {
+		if (isBatching()) {
+			batch.endElement(uri, localName, qName);
+			flushIfFull();
+		} else for (TransformerHandler branch : branches) branch.endElement(uri, localName, qName);
+	}
+
+	@Override
+	public void characters(char[] ch, int start, int length) throws SAXException {
+		if (isBatching()) {
+			batch.characters(ch, start, length);
+			flushIfFull();
+		} else for (TransformerHandler branch : branches) branch.characters(ch, start, length);
+	}
+
+	@Override
+	public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+		if (isBatching()) batch.ignorableWhitespace(ch, start, length);
+		else for (TransformerHandler branch : branches) branch.ignorableWhitespace(ch, start, length);
+	}
+
+	@Override
+	public void processingInstruction(String target, String data) throws SAXException {
+		if (isBatching()) batch.processingInstruction(target, data);
+		else for (TransformerHandler branch : branches) branch.processingInstruction(target, data);
+	}
+
+	@Override
+	public void skippedEntity(String name) throws SAXException {
+		if (isBatching()) batch.skippedEntity(name);
+		else for (TransformerHandler branch : branches) branch.skippedEntity(name);
+	}
+
+	@Override
+	public void startDTD(String name, String publicId, String systemId) throws SAXException {
+		if (isBatching()) batch.startDTD(name, publicId, systemId);
+		else for (TransformerHandler branch : branches) branch.startDTD(name, publicId, systemId);
+	}
+
+	@Override
+	public void endDTD() throws SAXException {
+		if (isBatching()) batch.endDTD();
+		else for (TransformerHandler branch : branches) branch.endDTD();
+	}
+
+	@Override
+	public void startEntity(String name) throws SAXException {
+		if (isBatching()) batch.startEntity(name);
+		else for (TransformerHandler branch : branches) branch.startEntity(name);
+	}
+
+	@Override
+	public void endEntity(String name) throws SAXException {
+		if (isBatching()) batch.endEntity(name);
+		else for (TransformerHandler branch : branches) branch.endEntity(name);
+	}
+
+	@Override
+	public void startCDATA() throws SAXException {
+		if (isBatching()) batch.startCDATA();
+		else for (TransformerHandler branch : branches) branch.startCDATA();
+	}
+
+	@Override
+	public void endCDATA() throws SAXException {
+		if (isBatching()) batch.endCDATA();
+		else for (TransformerHandler branch : branches) branch.endCDATA();
+	}
+
+	@Override
+	public void comment(char[] ch, int start, int length) throws SAXException {
+		if (isBatching()) {
+			batch.comment(ch, start, length);
+			flushIfFull();
+		} else for (TransformerHandler branch : branches) branch.comment(ch, start, length);
+	}
+
+	@Override
+	public void notationDecl(String name, String publicId, String systemId) throws SAXException {
+		// Not buffered; DTD declarations are sent directly, and only in sequential mode.
+		if (executor == null) for (TransformerHandler branch : branches) branch.notationDecl(name, publicId, systemId);
+	}
+
+	@Override
+	public void unparsedEntityDecl(String name, String publicId, String systemId, String notationName) throws SAXException {
+		if (executor == null) for (TransformerHandler branch : branches) branch.unparsedEntityDecl(name, publicId, systemId, notationName);
+	}
+
+	/** Not supported; each branch has its own result. */
+	@Override
+	public void setResult(Result result) throws IllegalArgumentException {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void setSystemId(String systemID) {
+		for (TransformerHandler branch : branches) branch.setSystemId(systemID);
+	}
+
+	@Override
+	public String getSystemId() {
+		return branches[0].getSystemId();
+	}
+
+	/** Get the transformer of the first branch */
+	@Override
+	public Transformer getTransformer() {
+		return branches[0].getTransformer();
+	}
+
+	/** Create a handler which runs each branch as a separate task on an executor.
+	 *
+	 * The executor must be able to run all the branches at once.
+	 *
+	 * @param executor Executor on which branches run
+	 * @param branches Handlers to which events are sent
+	 */
+	public TeeHandler(ExecutorService executor, TransformerHandler... branches) {
+		if (branches.length == 0) throw new IllegalArgumentException("At least one branch is required");
+		this.executor = executor;
+		this.branches = branches;
+	}
+
+	/** Create a handler which sends events to each branch in turn, on the writing thread.
+	 *
+	 * @param branches Handlers to which events are sent
+	 */
+	public TeeHandler(TransformerHandler... branches) {
+		this(null, branches);
+	}
+}
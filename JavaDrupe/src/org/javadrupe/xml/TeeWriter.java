@@ -0,0 +1,56 @@
+package org.javadrupe.xml;
+
+import java.util.concurrent.ExecutorService;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.transform.sax.TransformerHandler;
+
+/** TransformerWriter which feeds several transformations from one write pass.
+ * <p>
+ * Useful where the same content is needed in several output formats: the document is generated
+ * once, names and namespaces are resolved once, and each event is dispatched to every
+ * TransformerHandler (each with its own stylesheet and Result). With an executor, each handler runs
+ * on its own thread, so all the formats are produced in parallel.
+ * </p>
+ * @see TeeHandler
+ * @author Jonathan Essex
+ *
+ */
+public class TeeWriter extends TransformerWriter {
+
+	private final TeeHandler tee;
+
+	/** Close the writer, abandoning the current document if it has not been ended.
+	 * 
+	 * Should be called in a finally block when branches run on an executor, so that a document which
+	 * fails part way through does not leave branch tasks waiting for events which will never come.
+	 * 
+	 * @see TeeHandler#abort()
+	 */
+	@Override
+	public void close() throws XMLStreamException {
+		tee.abort();
+	}
+
+	/** Create a writer which runs each branch as a separate task on an executor.
+	 *
+	 * @param executor Executor on which branches run; must be able to run all the branches at once
+	 * @param branches Handlers to which events are sent
+	 */
+	public TeeWriter(ExecutorService executor, TransformerHandler... branches) {
+		this(new TeeHandler(executor, branches));
+	}
+
+	/** Create a writer which sends events to each branch in turn.
+	 *
+	 * @param branches Handlers to which events are sent
+	 */
+	public TeeWriter(TransformerHandler... branches) {
+		this(new TeeHandler(branches));
+	}
+
+	private TeeWriter(TeeHandler tee) {
+		super(tee);
+		this.tee = tee;
+	}
+}
@@ -1,7 +1,11 @@
 package org.javadrupe.xml;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Stack;
@@ -11,12 +15,16 @@ import java.util.stream.Stream;
 import javax.xml.XMLConstants;
 import javax.xml.namespace.NamespaceContext;
 import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.stream.XMLStreamWriter;
 import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.validation.Schema;
 
+import org.javadrupe.collections.NameValuePair;
+import org.javadrupe.reflection.Types;
 import org.xml.sax.SAXException;
-import org.xml.sax.helpers.AttributesImpl;
 
 /** Class that permits XSL transformation to be applied to written XML.
  * <p>
@@ -41,10 +49,21 @@ public class TransformerWriter implements XMLStreamWriter {
 		public Context(QName name, TransformerWriter.NamespaceContextImpl namespace) { this.name = name; this.namespace = namespace; }
 	}
 	
-	private TransformerHandler handler;
+	private final TransformerHandler handler;
+	private final NameTable names;
+	private final InstrumentedHandler instrumentation;
+	private final ValidatingHandler validation;
 	private Stack<TransformerWriter.Context> context = new Stack<TransformerWriter.Context>();
-	private AttributesImpl attributes = new AttributesImpl();
+	/** Prefix bound to each namespace URI in the current context; cleared whenever a binding is added or goes out of scope */
+	private final HashMap<String, String> prefixes = new HashMap<String, String>();
+	private AttributeBuffer attributes = new AttributeBuffer();
 	private boolean isFinished = true;
+	private ElementFilter filter = null;
+	private final ArrayList<QName> path = new ArrayList<QName>();
+	/** Depth within an excluded subtree; zero if not in one */
+	private int skip_depth = 0;
+	/** Depth within a subtree included in its entirety; zero if not in one */
+	private int unfiltered_depth = 0;
 	
 	private static class NamespaceContextImpl implements NamespaceContext {
 		
@@ -97,30 +116,44 @@ public class TransformerWriter implements XMLStreamWriter {
 			mapped_prefixes.put(URI, prefix);
 		}
 		
-		public String toQualifiedName(QName name) throws XMLStreamException {
+		public String toQualifiedName(QName name, NameTable names) throws XMLStreamException {
 			String namespace_uri = name.getNamespaceURI();
-			String local_name = name.getLocalPart();
 			
 			if (XMLConstants.NULL_NS_URI.equals(namespace_uri)) {
-				return local_name;
+				return name.getLocalPart();
 			} else {
 				String prefix = getPrefix(namespace_uri);
-				if (prefix == null) throw new XMLStreamException("Unknown URI for " + prefix);
-				if (prefix == XMLConstants.DEFAULT_NS_PREFIX) return local_name;
-				return prefix + ":" + local_name;
+				if (prefix == null) throw new XMLStreamException("Unknown URI " + namespace_uri);
+				return names.getQualifiedName(name, prefix);
 			}
 		}
 	}
 	
 
 	
+	/** Get the prefix bound to a namespace URI, caching it until the namespace bindings next change */
+	private String resolvePrefix(String uri) throws XMLStreamException {
+		String prefix = prefixes.get(uri);
+		if (prefix == null) {
+			prefix = context.peek().namespace.getPrefix(uri);
+			if (prefix == null) throw new XMLStreamException("Unknown URI " + uri);
+			prefixes.put(uri, prefix);
+		}
+		return prefix;
+	}
+	
+	private void addBinding(String prefix, String uri) {
+		context.peek().namespace.addLocalBinding(prefix, uri);
+		prefixes.clear();
+	}
+	
 	private void finishStartingElement() throws XMLStreamException {
 		if (!isFinished) {
 			TransformerWriter.Context current = context.peek();
 			try {
 				for (String uri : current.namespace.getLocalURIs())
 					handler.startPrefixMapping(current.namespace.getPrefix(uri), uri);
-				handler.startElement(current.name.getNamespaceURI(), current.name.getLocalPart(), current.namespace.toQualifiedName(current.name), attributes);
+				handler.startElement(current.name.getNamespaceURI(), current.name.getLocalPart(), current.namespace.toQualifiedName(current.name, names), attributes);
 			} catch (SAXException e) {
 				throw new XMLStreamException(e);
 			}
@@ -129,7 +162,72 @@ public class TransformerWriter implements XMLStreamWriter {
 		}			
 	}
 	
+	/** Ask the filter whether to write an element; returns false if the element is excluded */
+	private boolean startFiltered(QName name) {
+		if (unfiltered_depth > 0) {
+			unfiltered_depth++;
+			return true;
+		}
+		path.add(name);
+		ElementFilter.Action action = filter.filter(path);
+		if (action == ElementFilter.Action.EXCLUDE) {
+			path.remove(path.size() - 1);
+			skip_depth = 1;
+			return false;
+		}
+		if (action == ElementFilter.Action.INCLUDE_ALL) unfiltered_depth = 1;
+		return true;
+	}
+	
+	private void endFiltered() {
+		if (unfiltered_depth == 0 || --unfiltered_depth == 0) path.remove(path.size() - 1);
+	}
+	
+	/** Set a filter which decides which elements are passed on to the transformer.
+	 * <p>
+	 * Must be set before the document is started. When an element is excluded, it and everything 
+	 * written inside it (up to the matching writeEndElement) is silently dropped. Producers which
+	 * can avoid the cost of generating excluded content should either check {@link #isSkipping()}
+	 * after starting an element, or use {@link #writeElement(QName, ElementWriter)}.
+	 * </p>
+	 * @param filter Element filter, or null to write all elements.
+	 */
+	public void setElementFilter(ElementFilter filter) {
+		this.filter = filter;
+	}
+	
+	/** Check whether the current element has been excluded by the element filter.
+	 * 
+	 * If this returns true, nothing written will reach the transformer until the current element 
+	 * is ended, so the producer may skip straight to calling writeEndElement.
+	 * 
+	 * @return true if output is being dropped
+	 */
+	public boolean isSkipping() {
+		return skip_depth > 0;
+	}
+	
+	/** Write an element whose content is generated only if the element filter includes it.
+	 * 
+	 * @param name Element name
+	 * @param content Callback which writes the attributes and content of the element
+	 * @return true if the element was written, false if it was excluded (in which case content was not called)
+	 * @throws XMLStreamException
+	 */
+	public boolean writeElement(QName name, ElementWriter content) throws XMLStreamException {
+		writeStartElement(name);
+		boolean included = !isSkipping();
+		if (included) content.write(this);
+		writeEndElement();
+		return included;
+	}
+	
 	public void writeStartElement(QName name) throws XMLStreamException {
+		if (skip_depth > 0) {
+			skip_depth++;
+			return;
+		}
+		if (filter != null && !startFiltered(name)) return;
 		finishStartingElement();
 		NamespaceContextImpl current_namespace = context.isEmpty() ? null : context.peek().namespace;
 		context.push(new Context(name, new NamespaceContextImpl(current_namespace)));
@@ -138,23 +236,34 @@ public class TransformerWriter implements XMLStreamWriter {
 
 	@Override
 	public void writeStartElement(String localName) throws XMLStreamException {
-		writeStartElement(new QName(localName));	
+		writeStartElement(names.get(XMLConstants.NULL_NS_URI, localName, XMLConstants.DEFAULT_NS_PREFIX));	
 	}
 
 	@Override
 	public void writeStartElement(String namespaceURI, String localName) throws XMLStreamException {
-		writeStartElement(new QName(namespaceURI, localName));	
+		writeStartElement(names.get(namespaceURI, localName, XMLConstants.DEFAULT_NS_PREFIX));	
 	}
 
 	@Override
 	public void writeStartElement(String prefix, String localName, String namespaceURI) throws XMLStreamException {
-		writeStartElement(new QName(namespaceURI, localName, prefix));
+		writeStartElement(names.get(namespaceURI, localName, prefix));
 	}
 
 	public void writeEmptyElement(QName name) throws XMLStreamException {
+		if (skip_depth > 0) return;
+		if (filter != null) {
+			if (!startFiltered(name)) {
+				skip_depth = 0;
+				return;
+			}
+			endFiltered();
+		}
 		finishStartingElement();
 		try {
-			String qname = name.getPrefix() + ":" + name.getLocalPart();
+			String uri = name.getNamespaceURI();
+			String prefix = context.isEmpty() || XMLConstants.NULL_NS_URI.equals(uri) ? null : context.peek().namespace.getPrefix(uri);
+			// An empty element can't declare its own namespace, so if the URI isn't bound use the prefix it was written with
+			String qname = names.getQualifiedName(name, prefix == null ? name.getPrefix() : prefix);
 			handler.startElement(name.getNamespaceURI(), name.getLocalPart(), qname, attributes);
 			handler.endElement(name.getNamespaceURI(), name.getLocalPart(), qname);
 		} catch (SAXException e) {
@@ -165,25 +274,31 @@ public class TransformerWriter implements XMLStreamWriter {
 	
 	@Override
 	public void writeEmptyElement(String namespaceURI, String localName) throws XMLStreamException {
-		writeEmptyElement(new QName(namespaceURI, localName));
+		writeEmptyElement(names.get(namespaceURI, localName, XMLConstants.DEFAULT_NS_PREFIX));
 	}
 
 	@Override
 	public void writeEmptyElement(String prefix, String localName, String namespaceURI) throws XMLStreamException {
-		writeEmptyElement(new QName(namespaceURI, localName, prefix));
+		writeEmptyElement(names.get(namespaceURI, localName, prefix));
 	}
 
 	@Override
 	public void writeEmptyElement(String localName) throws XMLStreamException {
-		writeEmptyElement(new QName(localName));
+		writeEmptyElement(names.get(XMLConstants.NULL_NS_URI, localName, XMLConstants.DEFAULT_NS_PREFIX));
 	}
 
 	@Override
 	public void writeEndElement() throws XMLStreamException {
+		if (skip_depth > 0) {
+			skip_depth--;
+			return;
+		}
+		if (filter != null) endFiltered();
 		finishStartingElement();
 		try {
 			TransformerWriter.Context current = context.pop();
-			handler.endElement(current.name.getNamespaceURI(), current.name.getLocalPart(), current.namespace.toQualifiedName(current.name));
+			if (!current.namespace.mapped_prefixes.isEmpty()) prefixes.clear();
+			handler.endElement(current.name.getNamespaceURI(), current.name.getLocalPart(), current.namespace.toQualifiedName(current.name, names));
 			for (String prefix : current.namespace.getLocalPrefixes())
 				handler.endPrefixMapping(prefix);
 		} catch (SAXException e) {
@@ -211,36 +326,80 @@ public class TransformerWriter implements XMLStreamWriter {
 
 	@Override
 	public void writeAttribute(String localName, String value) throws XMLStreamException {
-		writeAttribute(new QName(localName), value);
+		writeAttribute(names.get(XMLConstants.NULL_NS_URI, localName, XMLConstants.DEFAULT_NS_PREFIX), value);
 	}
 	
 	public void writeAttribute(QName name, String value)
 			throws XMLStreamException {
-		String qname = context.peek().namespace.toQualifiedName(name);
-		attributes.addAttribute(name.getNamespaceURI(), name.getLocalPart(), qname, "", value );
+		if (skip_depth > 0) return;
+		String qname = context.peek().namespace.toQualifiedName(name, names);
+		attributes.add(name.getNamespaceURI(), name.getLocalPart(), qname, value);
+	}
+	
+	/** Write a batch of attributes on the current element.
+	 * 
+	 * Attribute names may be plain local names, or in the {uri}local form produced by QName.toString(); 
+	 * the namespace of the latter must already be bound to a prefix. Values are converted with 
+	 * {@link Types#toXmlValue(Object)}, and attributes with null values are not written. 
+	 * <p>
+	 * This is cheaper than calling writeAttribute for each attribute in turn: the attribute store 
+	 * is presized when the size of the batch is known and plain names need no namespace resolution.
+	 * Names in {uri}local form are parsed once per name table, and the prefix for each namespace 
+	 * is looked up once and reused across elements until the namespace bindings change.
+	 * </p>
+	 * @param attributes Attributes to write
+	 * @throws XMLStreamException
+	 */
+	public void writeAttributes(Iterable<? extends NameValuePair<?>> attributes) throws XMLStreamException {
+		if (attributes instanceof Collection) 
+			this.attributes.ensureCapacity(this.attributes.getLength() + ((Collection<?>)attributes).size());
+		writeAttributes(attributes.iterator());
+	}
+	
+	private void writeAttributes(Iterator<? extends NameValuePair<?>> attributes) throws XMLStreamException {
+		if (skip_depth > 0) return;
+		while (attributes.hasNext()) {
+			NameValuePair<?> attribute = attributes.next();
+			if (attribute.value == null) continue;
+			String name = attribute.name;
+			String value = Types.toXmlValue(attribute.value);
+			if (name.isEmpty() || name.charAt(0) != '{') {
+				this.attributes.add(XMLConstants.NULL_NS_URI, name, name, value);
+			} else {
+				QName qname = names.valueOf(name);
+				String uri = qname.getNamespaceURI();
+				this.attributes.add(uri, qname.getLocalPart(), names.getQualifiedName(qname, resolvePrefix(uri)), value);
+			}
+		}
+	}
+
+	/** Write a stream of attributes on the current element.
+	 * 
+	 * @see #writeAttributes(Iterable)
+	 * @param attributes Attributes to write
+	 * @throws XMLStreamException
+	 */
+	public void writeAttributes(Stream<? extends NameValuePair<?>> attributes) throws XMLStreamException {
+		writeAttributes(attributes.iterator());
 	}
 
 	@Override
 	public void writeAttribute(String prefix, String namespaceURI, String localName, String value)
 			throws XMLStreamException {
-		writeAttribute(new QName(namespaceURI, localName, prefix), value);
+		writeAttribute(names.get(namespaceURI, localName, prefix), value);
 		
 	}
 
 	@Override
 	public void writeAttribute(String namespaceURI, String localName, String value) throws XMLStreamException {
-		writeAttribute(new QName(namespaceURI, localName),value);			
+		writeAttribute(names.get(namespaceURI, localName, XMLConstants.DEFAULT_NS_PREFIX), value);			
 	}
 
 	@Override
 	public void writeNamespace(String prefix, String namespaceURI) throws XMLStreamException {
-		try {
-			context.peek().namespace.addLocalBinding(prefix, namespaceURI);;
-			handler.startPrefixMapping(prefix, namespaceURI);
-		} catch (SAXException e) {
-			throw new XMLStreamException(e);
-		}
-		
+		if (skip_depth > 0) return;
+		// startPrefixMapping is sent for all local bindings when the start element is finished
+		addBinding(prefix, namespaceURI);
 	}
 
 	@Override
@@ -250,9 +409,15 @@ public class TransformerWriter implements XMLStreamWriter {
 
 	@Override
 	public void writeComment(String data) throws XMLStreamException {
+		if (skip_depth > 0) return;
+		writeComment(data.toCharArray(), 0, data.length());
+	}
+	
+	private void writeComment(char[] text, int start, int len) throws XMLStreamException {
+		if (skip_depth > 0) return;
 		finishStartingElement();	
 		try {
-			handler.comment(data.toCharArray(), 0, data.length());
+			handler.comment(text, start, len);
 		} catch (SAXException e) {
 			throw new XMLStreamException(e);
 		}
@@ -265,6 +430,7 @@ public class TransformerWriter implements XMLStreamWriter {
 
 	@Override
 	public void writeProcessingInstruction(String target, String data) throws XMLStreamException {
+		if (skip_depth > 0) return;
 		finishStartingElement();
 		try {
 			handler.processingInstruction(target, data);
@@ -275,10 +441,16 @@ public class TransformerWriter implements XMLStreamWriter {
 
 	@Override
 	public void writeCData(String data) throws XMLStreamException {
+		if (skip_depth > 0) return;
+		writeCData(data.toCharArray(), 0, data.length());
+	}
+	
+	private void writeCData(char[] text, int start, int len) throws XMLStreamException {
+		if (skip_depth > 0) return;
 		finishStartingElement();
 		try {
 			handler.startCDATA();
-			handler.characters(data.toCharArray(), 0, data.length());
+			handler.characters(text, start, len);
 			handler.endCDATA();
 			
 		} catch (SAXException e) {
@@ -304,6 +476,7 @@ public class TransformerWriter implements XMLStreamWriter {
 
 	@Override
 	public void writeEntityRef(String name) throws XMLStreamException {
+		if (skip_depth > 0) return;
 		finishStartingElement();
 		try {
 			handler.startEntity(name);
@@ -334,12 +507,14 @@ public class TransformerWriter implements XMLStreamWriter {
 
 	@Override
 	public void writeCharacters(String text) throws XMLStreamException {
+		if (skip_depth > 0) return;
 		writeCharacters(text.toCharArray(), 0, text.length());
 		
 	}
 
 	@Override
 	public void writeCharacters(char[] text, int start, int len) throws XMLStreamException {
+		if (skip_depth > 0) return;
 		finishStartingElement();
 		try {
 			handler.characters(text, start, len);
@@ -348,6 +523,107 @@ public class TransformerWriter implements XMLStreamWriter {
 		}
 	}
 
+	private static String nullToEmpty(String value) {
+		return value == null ? XMLConstants.NULL_NS_URI : value;
+	}
+	
+	private void copyStartElement(XMLStreamReader reader) throws XMLStreamException {
+		writeStartElement(names.get(reader.getNamespaceURI(), reader.getLocalName(), reader.getPrefix()));
+		if (skip_depth > 0) return;
+		NamespaceContextImpl namespace = context.peek().namespace;
+		int namespace_count = reader.getNamespaceCount();
+		for (int i = 0; i < namespace_count; i++)
+			namespace.addLocalBinding(nullToEmpty(reader.getNamespacePrefix(i)), nullToEmpty(reader.getNamespaceURI(i)));
+		if (namespace_count > 0) prefixes.clear();
+		int attribute_count = reader.getAttributeCount();
+		attributes.ensureCapacity(attribute_count);
+		for (int i = 0; i < attribute_count; i++) {
+			String local_name = reader.getAttributeLocalName(i);
+			String prefix = nullToEmpty(reader.getAttributePrefix(i));
+			String uri = nullToEmpty(reader.getAttributeNamespace(i));
+			// The reader gives us the prefix, so no need to resolve it from the namespace context
+			String qname = prefix.isEmpty() ? local_name : names.getQualifiedName(names.get(uri, local_name, prefix), prefix);
+			attributes.add(uri, local_name, qname, reader.getAttributeValue(i));
+		}
+	}
+	
+	private void copyEvent(XMLStreamReader reader, int event) throws XMLStreamException {
+		switch (event) {
+		case XMLStreamConstants.START_ELEMENT:
+			copyStartElement(reader);
+			break;
+		case XMLStreamConstants.END_ELEMENT:
+			writeEndElement();
+			break;
+		case XMLStreamConstants.CHARACTERS:
+		case XMLStreamConstants.SPACE:
+			writeCharacters(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+			break;
+		case XMLStreamConstants.CDATA:
+			writeCData(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+			break;
+		case XMLStreamConstants.COMMENT:
+			writeComment(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+			break;
+		case XMLStreamConstants.PROCESSING_INSTRUCTION:
+			writeProcessingInstruction(reader.getPITarget(), nullToEmpty(reader.getPIData()));
+			break;
+		case XMLStreamConstants.ENTITY_REFERENCE:
+			writeEntityRef(reader.getLocalName());
+			break;
+		case XMLStreamConstants.START_DOCUMENT:
+			writeStartDocument();
+			break;
+		case XMLStreamConstants.END_DOCUMENT:
+			writeEndDocument();
+			break;
+		default:
+			// DTD and declarations are not copied.
+			break;
+		}
+	}
+	
+	/** Copy everything from a reader to this writer.
+	 * <p>
+	 * Copies the reader's current event and every event after it, up to and including the end of
+	 * the document. This is much faster than a hand-written copy loop: text is passed straight from
+	 * the reader's buffer with no intermediate String, names are interned, and namespace declarations 
+	 * and attributes are copied in bulk without any prefix resolution. The DTD, if any, is not copied.
+	 * </p>
+	 * @param reader Reader to copy from
+	 * @throws XMLStreamException
+	 */
+	public void copyFrom(XMLStreamReader reader) throws XMLStreamException {
+		int event = reader.getEventType();
+		while (true) {
+			copyEvent(reader, event);
+			if (event == XMLStreamConstants.END_DOCUMENT || !reader.hasNext()) return;
+			event = reader.next();
+		}
+	}
+	
+	/** Copy the current element from a reader to this writer.
+	 * 
+	 * The reader must be positioned on a start element. On return, it is positioned on the matching
+	 * end element.
+	 * 
+	 * @see #copyFrom(XMLStreamReader)
+	 * @param reader Reader to copy from
+	 * @throws XMLStreamException
+	 */
+	public void copySubtree(XMLStreamReader reader) throws XMLStreamException {
+		if (reader.getEventType() != XMLStreamConstants.START_ELEMENT) 
+			throw new XMLStreamException("Reader is not positioned on a start element", reader.getLocation());
+		int depth = 0;
+		int event = XMLStreamConstants.START_ELEMENT;
+		while (true) {
+			copyEvent(reader, event);
+			if (event == XMLStreamConstants.START_ELEMENT) depth++;
+			else if (event == XMLStreamConstants.END_ELEMENT && --depth == 0) return;
+			event = reader.next();
+		}
+	}
+
 	@Override
 	public String getPrefix(String uri) throws XMLStreamException {
 		return context.peek().namespace.getPrefix(uri);
@@ -355,12 +631,14 @@ public class TransformerWriter implements XMLStreamWriter {
 
 	@Override
 	public void setPrefix(String prefix, String uri) throws XMLStreamException {
-		context.peek().namespace.addLocalBinding(prefix, uri);			
+		if (skip_depth > 0) return;
+		addBinding(prefix, uri);
 	}
 
 	@Override
 	public void setDefaultNamespace(String uri) throws XMLStreamException {
-		context.peek().namespace.addLocalBinding("", uri);			
+		if (skip_depth > 0) return;
+		addBinding("", uri);
 	}
 
 	@Override
@@ -378,8 +656,74 @@ public class TransformerWriter implements XMLStreamWriter {
 		return handler.getTransformer().getOutputProperty(name);
 	}
 
+	/** Get metrics for the current (or most recent) document.
+	 * 
+	 * @return metrics, or null if this writer was created without a MetricsRegistry.
+	 */
+	public WriterMetrics getMetrics() {
+		return instrumentation == null ? null : instrumentation.getMetrics();
+	}
+
+	/** Get schema validation errors for the current (or most recent) document.
+	 * 
+	 * @return errors, or an empty list if this writer was created without a Schema.
+	 */
+	public List<ValidationError> getValidationErrors() {
+		return validation == null ? Collections.<ValidationError>emptyList() : validation.getErrors();
+	}
+
+	/** Create a writer with any combination of instrumentation and validation.
+	 * 
+	 * Events are counted and timed first, then validated, then sent to the handler; the handler time
+	 * reported in the metrics therefore includes validation.
+	 * 
+	 * @param handler Handler to which SAX events are sent
+	 * @param names Name table (may be shared with other writers)
+	 * @param metrics Registry to which metrics are reported, or null for no instrumentation
+	 * @param schema Schema against which the document is validated (see SchemaCache), or null for no validation
+	 * @param mode Whether to fail at the first error or collect errors (see getValidationErrors); ignored if schema is null
+	 */
+	public TransformerWriter(TransformerHandler handler, NameTable names, MetricsRegistry metrics, Schema schema, ValidatingHandler.Mode mode) {
+		this.validation = schema == null ? null : new ValidatingHandler(handler, schema, mode);
+		TransformerHandler target = validation == null ? handler : validation;
+		this.instrumentation = metrics == null ? null : new InstrumentedHandler(target, metrics);
+		this.handler = instrumentation == null ? target : instrumentation;
+		this.names = names;
+	}
+
+	/** Create an instrumented writer.
+	 * 
+	 * @param handler Handler to which SAX events are sent
+	 * @param names Name table (may be shared with other writers)
+	 * @param metrics Registry to which metrics are reported, or null for no instrumentation
+	 */
+	public TransformerWriter(TransformerHandler handler, NameTable names, MetricsRegistry metrics) {
+		this(handler, names, metrics, null, null);
+	}
+
+	/** Create a writer which interns names in a shared name table.
+	 * 
+	 * @param handler Handler to which SAX events are sent
+	 * @param names Name table (may be shared with other writers)
+	 */
+	public TransformerWriter(TransformerHandler handler, NameTable names) {
+		this(handler, names, null);
+	}
+
+	/** Create a writer which validates what is written against a schema.
+	 * 
+	 * Validation happens as events are written, before they reach the handler.
+	 * 
+	 * @param handler Handler to which SAX events are sent
+	 * @param schema Schema against which the document is validated (see SchemaCache)
+	 * @param mode Whether to fail at the first error or collect errors (see getValidationErrors)
+	 */
+	public TransformerWriter(TransformerHandler handler, Schema schema, ValidatingHandler.Mode mode) {
+		this(handler, new NameTable(), null, schema, mode);
+	}
+
 	public TransformerWriter(TransformerHandler handler) {
-		this.handler = handler;
+		this(handler, new NameTable());
 	}
 	
 }
\ No newline at end of file
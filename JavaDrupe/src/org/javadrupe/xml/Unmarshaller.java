@@ -0,0 +1,313 @@
+package org.javadrupe.xml;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.javadrupe.reflection.Types;
+
+/** Reads plain java objects from streaming XML.
+ * <p>
+ * The reverse of {@link Marshaller}. Each class is inspected once, producing a plan with a
+ * constructor handle and a setter handle (setter method or public field) per property; the
+ * plan is cached against the class. Objects are then built directly from an XMLStreamReader,
+ * with no intermediate DOM tree.
+ * </p><p>
+ * Element types are resolved with {@link Types}. An xsi:type attribute is used to pick a java
+ * type when the declared type of a property is Object; otherwise the declared type is used.
+ * Child elements which do not correspond to a property are skipped. Properties of array or
+ * Collection type are populated from repeated elements; interfaces such as List and Set are
+ * populated with an ArrayList or HashSet, and concrete collection classes are created with
+ * their no-argument constructor.
+ * </p><p>
+ * Types which cannot be read (maps, nested collections, and simple types such as
+ * java.sql.Timestamp for which Types has no conversion) are rejected with an
+ * IllegalArgumentException when an element for them is found.
+ * </p>
+ * @author Jonathan Essex
+ *
+ */
+public class Unmarshaller {
+
+	private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(Object.class);
+	private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+	private static class Property {
+		public final MethodHandle setter;
+		/** Type of the property, or of its items if it is a collection or array */
+		public final Class<?> item_type;
+		/** Property type if the property is a collection or array, otherwise null */
+		public final Class<?> collection_type;
+		/** Creates an empty collection for a collection property; null for arrays */
+		public final MethodHandle collection_constructor;
+		public Property(MethodHandle setter, Class<?> item_type, Class<?> collection_type, MethodHandle collection_constructor) {
+			this.setter = setter; this.item_type = item_type; this.collection_type = collection_type; this.collection_constructor = collection_constructor;
+		}
+	}
+
+	private static class Plan {
+		public final boolean is_simple;
+		public final MethodHandle constructor;
+		public final Map<String, Property> properties;
+		public Plan(boolean is_simple, MethodHandle constructor, Map<String, Property> properties) {
+			this.is_simple = is_simple; this.constructor = constructor; this.properties = properties;
+		}
+	}
+
+	private static final ClassValue<Plan> PLANS = new ClassValue<Plan>() {
+		@Override
+		protected Plan computeValue(Class<?> type) {
+			return createPlan(type);
+		}
+	};
+
+	/** Get a constructor for an empty collection assignable to type, or null if there is none */
+	private static MethodHandle getCollectionConstructor(Class<?> type) throws IllegalAccessException {
+		Class<?> implementation = type;
+		if (type.isAssignableFrom(ArrayList.class)) implementation = ArrayList.class;
+		else if (type.isAssignableFrom(HashSet.class)) implementation = HashSet.class;
+		else if (type.isAssignableFrom(TreeSet.class)) implementation = TreeSet.class;
+		else if (type.isInterface() || Modifier.isAbstract(type.getModifiers())) return null;
+		try {
+			return Beans.unreflectConstructor(implementation.getConstructor()).asType(CONSTRUCTOR_TYPE);
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	private static Property createProperty(MethodHandle setter, Class<?> type, Type generic_type) throws IllegalAccessException {
+		setter = setter.asType(SETTER_TYPE);
+		if (type.isArray() && type != byte[].class)
+			return new Property(setter, type.getComponentType(), type, null);
+		if (Collection.class.isAssignableFrom(type)) {
+			MethodHandle constructor = getCollectionConstructor(type);
+			// If there is no way to create the collection, createPlan rejects the type when it is used
+			if (constructor != null) {
+				Class<?> item_type = Object.class;
+				if (generic_type instanceof ParameterizedType) {
+					Type argument = ((ParameterizedType)generic_type).getActualTypeArguments()[0];
+					if (argument instanceof Class) item_type = (Class<?>)argument;
+				}
+				return new Property(setter, item_type, type, constructor);
+			}
+		}
+		return new Property(setter, type, null, null);
+	}
+
+	private static Plan createPlan(Class<?> type) {
+		if (type.isEnum() || Types.canConvertFromXml(type))
+			return new Plan(true, null, null);
+		if (Types.findSchemaType(type).isPresent())
+			throw new IllegalArgumentException("Cannot read " + type.getName() + " from XML; no conversion from its schema type");
+		if (Collection.class.isAssignableFrom(type) || Map.class.isAssignableFrom(type) || type.isArray())
+			throw new IllegalArgumentException("Cannot read " + type.getName() + " from XML; only properties may be collections or arrays");
+
+		HashMap<String, Property> properties = new HashMap<String, Property>();
+		MethodHandle constructor;
+		try {
+			constructor = Beans.unreflectConstructor(type.getConstructor()).asType(CONSTRUCTOR_TYPE);
+			for (Field field : type.getFields()) {
+				if (!Modifier.isStatic(field.getModifiers()) && !Modifier.isFinal(field.getModifiers()))
+					properties.put(field.getName(), createProperty(Beans.unreflectSetter(field), field.getType(), field.getGenericType()));
+			}
+			for (Method method : type.getMethods()) {
+				String name = Beans.getSetterPropertyName(method);
+				if (name != null)
+					properties.put(name, createProperty(Beans.unreflect(method), method.getParameterTypes()[0], method.getGenericParameterTypes()[0]));
+			}
+		} catch (NoSuchMethodException e) {
+			throw new IllegalArgumentException(type.getName() + " has no public no-argument constructor", e);
+		} catch (IllegalAccessException e) {
+			throw new IllegalArgumentException("Cannot access properties of " + type.getName(), e);
+		}
+		return new Plan(false, constructor, properties);
+	}
+
+	/** Get the schema type named by the xsi:type attribute of the current element, or null if there is none */
+	private static QName getXsiType(XMLStreamReader reader) {
+		String xsi_type = reader.getAttributeValue(XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI, "type");
+		if (xsi_type == null) return null;
+		int colon = xsi_type.indexOf(':');
+		String prefix = colon < 0 ? XMLConstants.DEFAULT_NS_PREFIX : xsi_type.substring(0, colon);
+		String uri = reader.getNamespaceURI(prefix);
+		return new QName(uri == null ? XMLConstants.NULL_NS_URI : uri, xsi_type.substring(colon + 1));
+	}
+
+	private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) depth++;
+			else if (event == XMLStreamConstants.END_ELEMENT) depth--;
+		}
+	}
+
+	private static Object readSimpleValue(XMLStreamReader reader, Class<?> type, QName schema_type) throws XMLStreamException {
+		String text = reader.getElementText();
+		if (type == QName.class) {
+			// Prefix is still in scope at the end element
+			text = text.trim();
+			int colon = text.indexOf(':');
+			if (colon < 0) return new QName(text);
+			String prefix = text.substring(0, colon);
+			return new QName(reader.getNamespaceURI(prefix), text.substring(colon + 1), prefix);
+		}
+		try {
+			return Types.fromXmlValue(text, type, schema_type);
+		} catch (IllegalArgumentException e) {
+			throw new XMLStreamException("Cannot read " + type.getName() + " from '" + text + "'", reader.getLocation(), e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Object toCollection(Property property, List<Object> items) throws XMLStreamException {
+		if (property.collection_type.isArray()) {
+			Object array = Array.newInstance(property.item_type, items.size());
+			for (int i = 0; i < items.size(); i++) Array.set(array, i, items.get(i));
+			return array;
+		}
+		if (property.collection_type.isInstance(items)) return items;
+		Collection<Object> collection;
+		try {
+			collection = (Collection<Object>)(Object)property.collection_constructor.invokeExact();
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new XMLStreamException("Cannot create " + property.collection_type.getName(), e);
+		}
+		collection.addAll(items);
+		return collection;
+	}
+
+	private static void set(Property property, Object target, Object value) throws XMLStreamException {
+		try {
+			property.setter.invokeExact(target, value);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new XMLStreamException(e);
+		}
+	}
+
+	/** Read an object from an element; on return the reader is positioned at the matching end element */
+	private static Object readValue(XMLStreamReader reader, Class<?> declared_type) throws XMLStreamException {
+		// xsi:type picks the java type of an Object property, and the encoding of a byte array
+		QName schema_type = declared_type == Object.class || declared_type == byte[].class ? getXsiType(reader) : null;
+		Class<?> type = declared_type;
+		if (declared_type == Object.class && schema_type != null) {
+			Optional<Class<?>> xsi_class = Types.getTypeFromSchema(schema_type);
+			if (xsi_class.isPresent()) type = xsi_class.get();
+		}
+		Plan plan = PLANS.get(type);
+		if (plan.is_simple) return readSimpleValue(reader, type, schema_type);
+
+		Object result;
+		try {
+			result = (Object)plan.constructor.invokeExact();
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new XMLStreamException("Cannot create " + type.getName(), reader.getLocation(), e);
+		}
+
+		HashMap<Property, List<Object>> collections = null;
+		for (int event = reader.next(); event != XMLStreamConstants.END_ELEMENT; event = reader.next()) {
+			if (event != XMLStreamConstants.START_ELEMENT) continue;
+			Property property = plan.properties.get(reader.getLocalName());
+			if (property == null) {
+				skipElement(reader);
+			} else if (property.collection_type != null) {
+				if (collections == null) collections = new HashMap<Property, List<Object>>();
+				collections.computeIfAbsent(property, p -> new ArrayList<Object>()).add(readValue(reader, property.item_type));
+			} else {
+				set(property, result, readValue(reader, property.item_type));
+			}
+		}
+
+		if (collections != null)
+			for (Map.Entry<Property, List<Object>> entry : collections.entrySet())
+				set(entry.getKey(), result, toCollection(entry.getKey(), entry.getValue()));
+
+		return result;
+	}
+
+	/** Read an object from XML.
+	 *
+	 * If the reader is not positioned on a start element, it is first advanced to the next one. On return,
+	 * the reader is positioned on the end element which matches that start element.
+	 *
+	 * @param reader Reader from which XML is read
+	 * @param type Type of object to create
+	 * @return A new object populated from the XML element
+	 * @throws XMLStreamException
+	 */
+	public <T> T unmarshal(XMLStreamReader reader, Class<T> type) throws XMLStreamException {
+		if (reader.getEventType() != XMLStreamConstants.START_ELEMENT) reader.nextTag();
+		@SuppressWarnings("unchecked")
+		T result = (T)readValue(reader, type);
+		return result;
+	}
+
+	/** Read a stream of objects from a document with many repeated elements.
+	 *
+	 * Objects are read lazily, one record at a time, so memory use does not depend on the size
+	 * of the document. Reading starts at the current position of the reader, which may be on the
+	 * first record. Elements other than records are skipped. Errors in the underlying reader
+	 * are thrown as an IllegalStateException wrapping the original XMLStreamException.
+	 *
+	 * @param reader Reader from which XML is read
+	 * @param record Name of repeated element to read
+	 * @param type Type of object to create for each record
+	 * @return A stream of objects, one for each record element.
+	 */
+	public <T> Stream<T> stream(XMLStreamReader reader, QName record, Class<T> type) {
+		Spliterator<T> records = new Spliterators.AbstractSpliterator<T>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+			@Override
+			public boolean tryAdvance(Consumer<? super T> action) {
+				try {
+					// The reader may already be positioned on the first record
+					for (int event = reader.getEventType(); ; event = reader.next()) {
+						if (event == XMLStreamConstants.START_ELEMENT
+							&& record.getLocalPart().equals(reader.getLocalName())
+							&& record.getNamespaceURI().equals(nullToEmpty(reader.getNamespaceURI()))) {
+							action.accept(unmarshal(reader, type));
+							return true;
+						}
+						if (!reader.hasNext()) return false;
+					}
+				} catch (XMLStreamException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		};
+		return StreamSupport.stream(records, false);
+	}
+
+	private static String nullToEmpty(String value) {
+		return value == null ? XMLConstants.NULL_NS_URI : value;
+	}
+}
@@ -0,0 +1,138 @@
+package org.javadrupe.xml;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.validation.Schema;
+import javax.xml.validation.ValidatorHandler;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+/** Handler which validates events against a schema on their way to a TransformerHandler.
+ * <p>
+ * Content events pass through a ValidatorHandler for the schema, which forwards them (with any
+ * default attributes added by the schema) to the target. Lexical events such as comments go
+ * straight to the target. Validation therefore happens in the same pass as the transformation,
+ * with no need to serialize and parse the document again.
+ * </p><p>
+ * Errors are reported with the path of the element being written when they were found. In
+ * FAIL_FAST mode the first error stops the document with a SAXException (which TransformerWriter
+ * reports as an XMLStreamException); in COLLECT mode errors are collected and the document is
+ * written regardless.
+ * </p>
+ * @see SchemaCache
+ * @author Jonathan Essex
+ *
+ */
+public class ValidatingHandler extends ForwardingHandler {
+
+	public enum Mode {
+		/** Stop at the first error */
+		FAIL_FAST,
+		/** Collect errors and carry on */
+		COLLECT
+	}
+
+	private final ValidatorHandler validator;
+	private final Mode mode;
+	private final ArrayList<String> path = new ArrayList<String>();
+	private final ArrayList<ValidationError> errors = new ArrayList<ValidationError>();
+
+	private String getPath() {
+		if (path.isEmpty()) return "/";
+		StringBuilder result = new StringBuilder();
+		for (String name : path) result.append('/').append(name);
+		return result.toString();
+	}
+
+	private class Errors implements ErrorHandler {
+		@Override
+		public void warning(SAXParseException exception) {
+		}
+
+		@Override
+		public void error(SAXParseException exception) throws SAXException {
+			ValidationError error = new ValidationError(getPath(), exception.getMessage());
+			errors.add(error);
+			if (mode == Mode.FAIL_FAST) throw new SAXException(error.toString(), exception);
+		}
+
+		@Override
+		public void fatalError(SAXParseException exception) throws SAXException {
+			ValidationError error = new ValidationError(getPath(), exception.getMessage());
+			errors.add(error);
+			throw new SAXException(error.toString(), exception);
+		}
+	}
+
+	/** Get errors found in the current (or most recent) document.
+	 *
+	 * @return errors, in the order found
+	 */
+	public List<ValidationError> getErrors() {
+		return Collections.unmodifiableList(errors);
+	}
+
+	/** True if no errors have been found in the current (or most recent) document */
+	public boolean isValid() {
+		return errors.isEmpty();
+	}
+
+	@Override
+	public void setDocumentLocator(Locator locator) { validator.setDocumentLocator(locator); }
+
+	@Override
+	public void startDocument() throws SAXException {
+		errors.clear();
+		path.clear();
+		validator.startDocument();
+	}
+
+	@Override
+	public void endDocument() throws SAXException { validator.endDocument(); }
+	@Override
+	public void startPrefixMapping(String prefix, String uri) throws SAXException { validator.startPrefixMapping(prefix, uri); }
+	@Override
+	public void endPrefixMapping(String prefix) throws SAXException { validator.endPrefixMapping(prefix); }
+
+	@Override
+	public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+		path.add(qName.isEmpty() ? localName : qName);
+		validator.startElement(uri, localName, qName, atts);
+	}
+
+	@Override
+	public void endElement(String uri, String localName, String qName) throws SAXException {
+		validator.endElement(uri, localName, qName);
+		path.remove(path.size() - 1);
+	}
+
+	@Override
+	public void characters(char[] ch, int start, int length) throws SAXException { validator.characters(ch, start, length); }
+	@Override
+	public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException { validator.ignorableWhitespace(ch, start, length); }
+	@Override
+	public void processingInstruction(String target, String data) throws SAXException { validator.processingInstruction(target, data); }
+	@Override
+	public void skippedEntity(String name) throws SAXException { validator.skippedEntity(name); }
+
+	/** Create a validating handler.
+	 *
+	 * @param target Handler to which validated events are sent
+	 * @param schema Schema against which events are validated
+	 * @param mode Whether to stop at the first error or collect errors
+	 */
+	public ValidatingHandler(TransformerHandler target, Schema schema, Mode mode) {
+		super(target);
+		this.mode = mode;
+		this.validator = schema.newValidatorHandler();
+		validator.setContentHandler(target);
+		validator.setErrorHandler(new Errors());
+	}
+}
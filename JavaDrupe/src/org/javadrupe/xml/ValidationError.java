@@ -0,0 +1,27 @@
+package org.javadrupe.xml;
+
+/** Schema validation error reported by a {@link ValidatingHandler}.
+ *
+ * @author Jonathan Essex
+ *
+ */
+public class ValidationError {
+
+	private final String path;
+	private final String message;
+
+	/** Path of the element in which the error was found, in the form /name/name/... */
+	public String getPath() { return path; }
+	/** Message from the validator */
+	public String getMessage() { return message; }
+
+	@Override
+	public String toString() {
+		return path + ": " + message;
+	}
+
+	public ValidationError(String path, String message) {
+		this.path = path;
+		this.message = message;
+	}
+}
@@ -0,0 +1,46 @@
+package org.javadrupe.xml;
+
+/** Counters for a single document written through an instrumented TransformerWriter.
+ *
+ * Updated by the writer's thread only, so values read from another thread while a document
+ * is being written are approximate. Handler time is estimated from sampled calls; writer time
+ * is the elapsed time of the document less the handler time.
+ *
+ * @author Jonathan Essex
+ *
+ */
+public class WriterMetrics {
+
+	long elements;
+	long attributes;
+	long characters;
+	long namespace_declarations;
+	int depth;
+	int max_depth;
+	long start_nanos;
+	long elapsed_nanos;
+	long handler_nanos;
+
+	/** Number of elements started */
+	public long getElements() { return elements; }
+	/** Number of attributes written */
+	public long getAttributes() { return attributes; }
+	/** Number of characters of text, CDATA and comment written */
+	public long getCharacters() { return characters; }
+	/** Number of namespace prefix mappings started */
+	public long getNamespaceDeclarations() { return namespace_declarations; }
+	/** Greatest element nesting depth */
+	public int getMaxDepth() { return max_depth; }
+	/** Time from start to end of document, in nanoseconds */
+	public long getElapsedNanos() { return elapsed_nanos; }
+	/** Estimated time spent inside the transformer handler, in nanoseconds */
+	public long getHandlerNanos() { return handler_nanos; }
+	/** Estimated time spent producing the document and in the writer, in nanoseconds */
+	public long getWriterNanos() { return Math.max(0, elapsed_nanos - handler_nanos); }
+
+	public String toString() {
+		return "{ \"elements\": " + elements + ", \"attributes\": " + attributes + ", \"characters\": " + characters
+			+ ", \"namespaceDeclarations\": " + namespace_declarations + ", \"maxDepth\": " + max_depth
+			+ ", \"handlerNanos\": " + handler_nanos + ", \"writerNanos\": " + getWriterNanos() + " }";
+	}
+}
@@ -0,0 +1,95 @@
+package org.javadrupe.xml.test;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamResult;
+
+import org.javadrupe.xml.EventRecorder;
+import org.javadrupe.xml.EventRecording;
+import org.javadrupe.xml.RecordingCache;
+import org.javadrupe.xml.TransformerWriter;
+
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+public class TestEventRecording {
+
+	private static SAXTransformerFactory TRANSFORMER_FACTORY = (SAXTransformerFactory)TransformerFactory.newInstance();
+
+	private static EventRecording record(int paras) throws XMLStreamException {
+		EventRecorder recorder = new EventRecorder();
+		TransformerWriter writer = new TransformerWriter(recorder);
+		writer.writeStartDocument();
+		writer.writeStartElement("x", "document", "urn:test");
+		writer.writeNamespace("x", "urn:test");
+		writer.writeComment("generated");
+		for (int i = 0; i < paras; i++) {
+			writer.writeStartElement("para");
+			writer.writeAttribute("number", Integer.toString(i));
+			writer.writeCharacters("caf\u00e9 \u20ac" + i);
+			writer.writeEndElement();
+		}
+		writer.writeEndElement();
+		writer.writeEndDocument();
+		writer.close();
+		return recorder.getRecording();
+	}
+
+	private static String replay(EventRecording recording) throws TransformerConfigurationException, SAXException {
+		TransformerHandler handler = TRANSFORMER_FACTORY.newTransformerHandler();
+		StringWriter buffer = new StringWriter();
+		handler.setResult(new StreamResult(buffer));
+		recording.replay(handler);
+		return buffer.toString();
+	}
+
+	@Test
+	public void testReplay() throws XMLStreamException, TransformerConfigurationException, SAXException {
+		EventRecording recording = record(100);
+		String document = replay(recording);
+		assertTrue(document.indexOf("<x:document xmlns:x=\"urn:test\"><!--generated--><para number=\"0\">caf\u00e9 \u20ac0</para>") >= 0);
+		assertTrue(document.indexOf("<para number=\"99\">caf\u00e9 \u20ac99</para></x:document>") >= 0);
+		assertEquals(document, replay(recording));
+	}
+
+	@Test
+	public void testSaveAndLoad() throws XMLStreamException, TransformerConfigurationException, SAXException, IOException {
+		EventRecording recording = record(10);
+		Path file = Files.createTempFile("recording", ".bin");
+		try {
+			recording.save(file);
+			EventRecording loaded = EventRecording.load(file);
+			assertEquals(recording.size(), loaded.size());
+			assertEquals(replay(recording), replay(loaded));
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void testCache() throws XMLStreamException {
+		EventRecording small = record(1);
+		RecordingCache cache = new RecordingCache(small.size() * 2);
+		cache.put("a", small);
+		cache.put("b", record(1));
+		cache.get("a");
+		cache.put("c", record(1));
+		assertEquals(2, cache.size());
+		assertSame(small, cache.get("a"));
+		assertNull(cache.get("b"));
+		assertNotNull(cache.get("c"));
+		cache.put("d", record(100));
+		assertNull(cache.get("d"));
+		assertEquals(small.size() * 2, cache.getBytes());
+	}
+}
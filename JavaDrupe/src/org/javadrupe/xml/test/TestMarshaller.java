@@ -0,0 +1,113 @@
+package org.javadrupe.xml.test;
+
+import static org.junit.Assert.*;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamResult;
+
+import org.javadrupe.xml.Marshaller;
+import org.javadrupe.xml.TransformerWriter;
+
+import org.junit.Test;
+
+public class TestMarshaller {
+
+	private static SAXTransformerFactory TRANSFORMER_FACTORY = (SAXTransformerFactory)TransformerFactory.newInstance();
+
+	public static class Point {
+		public double x;
+		private String label;
+		public String getLabel() { return label; }
+		public Point(double x, String label) { this.x = x; this.label = label; }
+	}
+
+	public static class Shape {
+		public String getName() { return "triangle"; }
+		public List<Point> getPoints() { return Arrays.asList(new Point(1.0, "a"), new Point(2.5, null)); }
+		public boolean isClosed() { return true; }
+	}
+
+	public static class Event {
+		public Calendar getWhen() { 
+			GregorianCalendar when = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+			when.setTimeInMillis(0);
+			return when; 
+		}
+		public java.sql.Timestamp getCreated() { return new java.sql.Timestamp(0); }
+	}
+
+	public static class Node {
+		public Node next;
+	}
+
+	public static class Settings {
+		public Map<String, String> getValues() { return new HashMap<String, String>(); }
+	}
+
+	private String marshal(Marshaller marshaller, Object value) throws TransformerConfigurationException, XMLStreamException {
+		TransformerHandler handler = TRANSFORMER_FACTORY.newTransformerHandler();
+		StringWriter buffer = new StringWriter();
+		handler.setResult(new StreamResult(buffer));
+		TransformerWriter writer = new TransformerWriter(handler);
+		writer.writeStartDocument();
+		marshaller.marshal(value, writer);
+		writer.writeEndDocument();
+		writer.close();
+		return buffer.toString();
+	}
+
+	@Test
+	public void testSimpleBean() throws TransformerConfigurationException, XMLStreamException {
+		String document = marshal(new Marshaller(), new Point(1.0, "a"));
+		assertTrue(document.indexOf("<point><label>a</label><x>1.0</x></point>") >= 0);
+	}
+
+	@Test
+	public void testNestedBean() throws TransformerConfigurationException, XMLStreamException {
+		String document = marshal(new Marshaller(), new Shape());
+		assertTrue(document.indexOf("<shape><closed>true</closed><name>triangle</name>") >= 0);
+		assertTrue(document.indexOf("<points><label>a</label><x>1.0</x></points><points><x>2.5</x></points>") >= 0);
+	}
+
+	@Test
+	public void testWriteTypes() throws TransformerConfigurationException, XMLStreamException {
+		String document = marshal(new Marshaller(true), new Point(1.0, "a"));
+		assertTrue(document.indexOf("xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"") >= 0);
+		assertTrue(document.indexOf("<x xsi:type=\"xs:double\">1.0</x>") >= 0);
+	}
+
+	@Test
+	public void testCalendarSubclasses() throws TransformerConfigurationException, XMLStreamException {
+		String document = marshal(new Marshaller(), new Event());
+		assertTrue(document.indexOf("<when>1970-01-01T00:00:00") >= 0);
+		assertTrue(document.indexOf("<created>") >= 0);
+		assertTrue(document.indexOf("calendarType") < 0);
+		assertTrue(document.indexOf("<nanos>") < 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCycle() throws TransformerConfigurationException, XMLStreamException {
+		Node node = new Node();
+		node.next = new Node();
+		node.next.next = node;
+		marshal(new Marshaller(), node);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMapRejected() throws TransformerConfigurationException, XMLStreamException {
+		marshal(new Marshaller(), new Settings());
+	}
+}
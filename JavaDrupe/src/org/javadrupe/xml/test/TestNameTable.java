@@ -0,0 +1,68 @@
+package org.javadrupe.xml.test;
+
+import static org.junit.Assert.*;
+
+import javax.xml.namespace.QName;
+
+import org.javadrupe.xml.NameTable;
+
+import org.junit.Test;
+
+public class TestNameTable {
+
+	private static String TEST_NAMESPACE="urn:org.javadrupe.xml.test";
+
+	@Test
+	public void testInterning() {
+		NameTable names = new NameTable();
+		QName name = names.get(TEST_NAMESPACE, "document", "test");
+		assertEquals(new QName(TEST_NAMESPACE, "document", "test"), name);
+		assertSame(name, names.get(TEST_NAMESPACE, new String("document"), "test"));
+		assertSame(name, names.get(new QName(TEST_NAMESPACE, "document", "test")));
+		assertNotSame(name, names.get(TEST_NAMESPACE, "document", "other"));
+	}
+
+	@Test
+	public void testManyNames() {
+		NameTable names = new NameTable();
+		for (int i = 0; i < 1000; i++) names.get(TEST_NAMESPACE, "name" + i, null);
+		QName name = names.get(TEST_NAMESPACE, "name500", null);
+		assertSame(name, names.get(TEST_NAMESPACE, "name500", ""));
+	}
+
+	@Test
+	public void testQualifiedName() {
+		NameTable names = new NameTable();
+		QName name = names.get(TEST_NAMESPACE, "document", "");
+		assertEquals("document", names.getQualifiedName(name, ""));
+		String qualified = names.getQualifiedName(name, "test");
+		assertEquals("test:document", qualified);
+		assertSame(qualified, names.getQualifiedName(name, "test"));
+		assertEquals("other:document", names.getQualifiedName(name, "other"));
+	}
+
+	@Test
+	public void testMaxSize() {
+		NameTable names = new NameTable(2);
+		QName first = names.get(TEST_NAMESPACE, "first", "");
+		names.get(TEST_NAMESPACE, "second", "");
+		QName third = names.get(TEST_NAMESPACE, "third", "");
+		assertEquals(new QName(TEST_NAMESPACE, "third"), third);
+		assertNotSame(third, names.get(TEST_NAMESPACE, "third", ""));
+		assertSame(first, names.get(TEST_NAMESPACE, "first", ""));
+	}
+
+	@Test
+	public void testAlternatingPrefixes() {
+		NameTable names = new NameTable();
+		QName name = names.get(TEST_NAMESPACE, "document", "");
+		String first = names.getQualifiedName(name, "a");
+		String second = names.getQualifiedName(name, "b");
+		for (int i = 0; i < 3; i++) {
+			assertSame(first, names.getQualifiedName(name, "a"));
+			assertSame(second, names.getQualifiedName(name, "b"));
+		}
+		assertEquals("a:document", first);
+		assertEquals("b:document", second);
+	}
+}
@@ -0,0 +1,65 @@
+package org.javadrupe.xml.test;
+
+import static org.junit.Assert.*;
+
+import java.io.StringWriter;
+import java.util.Collections;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamResult;
+
+import org.javadrupe.xml.PathProjection;
+import org.javadrupe.xml.TransformerWriter;
+
+import org.junit.Test;
+
+public class TestPathProjection {
+
+	private static SAXTransformerFactory TRANSFORMER_FACTORY = (SAXTransformerFactory)TransformerFactory.newInstance();
+	private static String TEST_NAMESPACE="urn:org.javadrupe.xml.test";
+
+	@Test
+	public void testProjection() throws TransformerConfigurationException, XMLStreamException {
+		TransformerHandler handler = TRANSFORMER_FACTORY.newTransformerHandler();
+		StringWriter buffer = new StringWriter();
+		handler.setResult(new StreamResult(buffer));
+		TransformerWriter writer = new TransformerWriter(handler);
+		writer.setElementFilter(new PathProjection(Collections.singletonMap("t", TEST_NAMESPACE), "/t:order/customer", "/t:order/line/price"));
+		writer.writeStartDocument();
+		writer.writeStartElement("t", "order", TEST_NAMESPACE);
+		writer.writeNamespace("t", TEST_NAMESPACE);
+		writer.writeStartElement("customer");
+		writer.writeStartElement("name");
+		writer.writeCharacters("Fred");
+		writer.writeEndElement();
+		writer.writeEndElement();
+		writer.writeStartElement("line");
+		writer.writeAttribute("number", "1");
+		writer.writeStartElement("description");
+		assertTrue(writer.isSkipping());
+		writer.writeStartElement("nested");
+		writer.writeCharacters("dropped");
+		writer.writeEndElement();
+		writer.writeEndElement();
+		assertFalse(writer.isSkipping());
+		writer.writeStartElement("price");
+		writer.writeCharacters("10");
+		writer.writeEndElement();
+		boolean written = writer.writeElement(new QName("notes"), w -> fail("excluded content generated"));
+		assertFalse(written);
+		writer.writeEndElement();
+		writer.writeEmptyElement("footer");
+		writer.writeEndElement();
+		writer.writeEndDocument();
+		writer.close();
+		String document = buffer.toString();
+		assertTrue(document.indexOf("<customer><name>Fred</name></customer><line number=\"1\"><price>10</price></line></t:order>") >= 0);
+		assertTrue(document.indexOf("dropped") < 0);
+		assertTrue(document.indexOf("footer") < 0);
+	}
+}
@@ -0,0 +1,218 @@
+package org.javadrupe.xml.test;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.transform.ErrorListener;
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.URIResolver;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TemplatesHandler;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.javadrupe.xml.RecordTransformingHandler;
+import org.javadrupe.xml.RecordingCache;
+import org.javadrupe.xml.TransformerWriter;
+
+import org.junit.Test;
+import org.xml.sax.XMLFilter;
+
+public class TestRecordTransformingHandler {
+
+	private static SAXTransformerFactory TRANSFORMER_FACTORY = (SAXTransformerFactory)TransformerFactory.newInstance();
+	private static String TEST_NAMESPACE="urn:org.javadrupe.xml.test";
+	private static String STYLESHEET = 
+		"<xsl:stylesheet version='1.0' xmlns:xsl='http://www.w3.org/1999/XSL/Transform' xmlns:test='" + TEST_NAMESPACE + "'>"
+		+ "<xsl:template match='/test:record'><item><xsl:value-of select='@id'/></item></xsl:template>"
+		+ "</xsl:stylesheet>";
+
+	/** Factory which counts calls from threads other than the one which created it */
+	private static class SingleThreadedFactory extends SAXTransformerFactory {
+		private final SAXTransformerFactory factory = (SAXTransformerFactory)TransformerFactory.newInstance();
+		private final Thread owner = Thread.currentThread();
+		public final AtomicInteger other_thread_calls = new AtomicInteger();
+		private void check() { if (Thread.currentThread() != owner) other_thread_calls.incrementAndGet(); }
+		@Override
+		public TransformerHandler newTransformerHandler(Source src) throws TransformerConfigurationException { check(); return factory.newTransformerHandler(src); }
+		@Override
+		public TransformerHandler newTransformerHandler(Templates templates) throws TransformerConfigurationException { check(); return factory.newTransformerHandler(templates); }
+		@Override
+		public TransformerHandler newTransformerHandler() throws TransformerConfigurationException { check(); return factory.newTransformerHandler(); }
+		@Override
+		public TemplatesHandler newTemplatesHandler() throws TransformerConfigurationException { check(); return factory.newTemplatesHandler(); }
+		@Override
+		public XMLFilter newXMLFilter(Source src) throws TransformerConfigurationException { check(); return factory.newXMLFilter(src); }
+		@Override
+		public XMLFilter newXMLFilter(Templates templates) throws TransformerConfigurationException { check(); return factory.newXMLFilter(templates); }
+		@Override
+		public Transformer newTransformer(Source source) throws TransformerConfigurationException { check(); return factory.newTransformer(source); }
+		@Override
+		public Transformer newTransformer() throws TransformerConfigurationException { check(); return factory.newTransformer(); }
+		@Override
+		public Templates newTemplates(Source source) throws TransformerConfigurationException { check(); return factory.newTemplates(source); }
+		@Override
+		public Source getAssociatedStylesheet(Source source, String media, String title, String charset) throws TransformerConfigurationException { check(); return factory.getAssociatedStylesheet(source, media, title, charset); }
+		@Override
+		public void setURIResolver(URIResolver resolver) { check(); factory.setURIResolver(resolver); }
+		@Override
+		public URIResolver getURIResolver() { check(); return factory.getURIResolver(); }
+		@Override
+		public void setFeature(String name, boolean value) throws TransformerConfigurationException { check(); factory.setFeature(name, value); }
+		@Override
+		public boolean getFeature(String name) { check(); return factory.getFeature(name); }
+		@Override
+		public void setAttribute(String name, Object value) { check(); factory.setAttribute(name, value); }
+		@Override
+		public Object getAttribute(String name) { check(); return factory.getAttribute(name); }
+		@Override
+		public void setErrorListener(ErrorListener listener) { check(); factory.setErrorListener(listener); }
+		@Override
+		public ErrorListener getErrorListener() { check(); return factory.getErrorListener(); }
+	}
+
+	private static Templates compile() throws TransformerConfigurationException {
+		return TRANSFORMER_FACTORY.newTemplates(new StreamSource(new StringReader(STYLESHEET)));
+	}
+
+	private static void writeRecords(TransformerWriter writer, int count) throws XMLStreamException {
+		writer.writeStartDocument();
+		writer.writeStartElement("test", "records", TEST_NAMESPACE);
+		writer.writeNamespace("test", TEST_NAMESPACE);
+		for (int i = 0; i < count; i++) {
+			writer.writeStartElement("test", "record", TEST_NAMESPACE);
+			writer.writeAttribute("id", Integer.toString(i));
+			writer.writeEndElement();
+		}
+		writer.writeEndElement();
+		writer.writeEndDocument();
+		writer.close();
+	}
+
+	@Test
+	public void testRecordsTransformed() throws TransformerConfigurationException, XMLStreamException {
+		TransformerHandler output = TRANSFORMER_FACTORY.newTransformerHandler();
+		StringWriter buffer = new StringWriter();
+		output.setResult(new StreamResult(buffer));
+		RecordTransformingHandler handler = new RecordTransformingHandler(TRANSFORMER_FACTORY, compile(), new QName(TEST_NAMESPACE, "record"), output);
+		writeRecords(new TransformerWriter(handler), 3);
+		String document = buffer.toString();
+		assertTrue(document.indexOf("<test:records xmlns:test=\"urn:org.javadrupe.xml.test\">") >= 0);
+		assertTrue(document.indexOf("<item>0</item><item>1</item><item>2</item></test:records>") >= 0);
+	}
+
+	@Test
+	public void testParallelRecordsInOrder() throws TransformerConfigurationException, XMLStreamException {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			TransformerHandler output = TRANSFORMER_FACTORY.newTransformerHandler();
+			StringWriter buffer = new StringWriter();
+			output.setResult(new StreamResult(buffer));
+			RecordTransformingHandler handler = new RecordTransformingHandler(TRANSFORMER_FACTORY, compile(), new QName(TEST_NAMESPACE, "record"), output, executor, 8);
+			writeRecords(new TransformerWriter(handler), 100);
+			String document = buffer.toString();
+			StringBuilder expected = new StringBuilder();
+			for (int i = 0; i < 100; i++) expected.append("<item>").append(i).append("</item>");
+			expected.append("</test:records>");
+			assertTrue(document.indexOf(expected.toString()) >= 0);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private static String transformIncremental(RecordingCache cache, String version, int count, ExecutorService executor, int[] counts) throws TransformerConfigurationException, XMLStreamException {
+		TransformerHandler output = TRANSFORMER_FACTORY.newTransformerHandler();
+		StringWriter buffer = new StringWriter();
+		output.setResult(new StreamResult(buffer));
+		RecordTransformingHandler handler = executor == null
+			? new RecordTransformingHandler(TRANSFORMER_FACTORY, compile(), new QName(TEST_NAMESPACE, "record"), output)
+			: new RecordTransformingHandler(TRANSFORMER_FACTORY, compile(), new QName(TEST_NAMESPACE, "record"), output, executor, 8);
+		handler.setCache(cache, version);
+		writeRecords(new TransformerWriter(handler), count);
+		counts[0] = handler.getReusedRecords();
+		counts[1] = handler.getTransformedRecords();
+		return buffer.toString();
+	}
+
+	@Test
+	public void testIncremental() throws TransformerConfigurationException, XMLStreamException, IOException {
+		RecordingCache cache = new RecordingCache(1 << 20);
+		int[] counts = new int[2];
+		String first = transformIncremental(cache, "1", 10, null, counts);
+		assertEquals(0, counts[0]);
+		assertEquals(10, counts[1]);
+		String second = transformIncremental(cache, "1", 11, null, counts);
+		assertEquals(10, counts[0]);
+		assertEquals(1, counts[1]);
+		assertTrue(first.indexOf("<item>0</item><item>1</item>") >= 0);
+		assertTrue(second.indexOf("<item>8</item><item>9</item><item>10</item></test:records>") >= 0);
+
+		Path file = Files.createTempFile("cache", ".bin");
+		try {
+			cache.save(file);
+			RecordingCache loaded = new RecordingCache(1 << 20);
+			loaded.load(file);
+			assertEquals(cache.size(), loaded.size());
+			transformIncremental(loaded, "1", 11, null, counts);
+			assertEquals(11, counts[0]);
+			transformIncremental(loaded, "2", 11, null, counts);
+			assertEquals(0, counts[0]);
+			assertEquals(11, counts[1]);
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void testParallelIncremental() throws TransformerConfigurationException, XMLStreamException {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			RecordingCache cache = new RecordingCache(1 << 20);
+			int[] counts = new int[2];
+			transformIncremental(cache, "1", 50, executor, counts);
+			String document = transformIncremental(cache, "1", 100, executor, counts);
+			assertEquals(50, counts[0]);
+			assertEquals(50, counts[1]);
+			StringBuilder expected = new StringBuilder();
+			for (int i = 0; i < 100; i++) expected.append("<item>").append(i).append("</item>");
+			expected.append("</test:records>");
+			assertTrue(document.indexOf(expected.toString()) >= 0);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testParallelIncrementalFactoryUse() throws TransformerConfigurationException, XMLStreamException {
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			SingleThreadedFactory factory = new SingleThreadedFactory();
+			TransformerHandler output = factory.newTransformerHandler();
+			StringWriter buffer = new StringWriter();
+			output.setResult(new StreamResult(buffer));
+			RecordTransformingHandler handler = new RecordTransformingHandler(factory, compile(), new QName(TEST_NAMESPACE, "record"), output, executor, 4);
+			handler.setCache(new RecordingCache(1 << 20), "1");
+			writeRecords(new TransformerWriter(handler), 1000);
+			assertEquals(0, factory.other_thread_calls.get());
+			assertEquals(1000, handler.getTransformedRecords());
+			assertTrue(buffer.toString().indexOf("<item>998</item><item>999</item></test:records>") >= 0);
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,182 @@
+package org.javadrupe.xml.test;
+
+import static org.junit.Assert.*;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.javadrupe.xml.ForwardingHandler;
+import org.javadrupe.xml.TeeWriter;
+import org.javadrupe.xml.TransformerWriter;
+
+import org.junit.Test;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+
+public class TestTeeWriter {
+
+	private static SAXTransformerFactory TRANSFORMER_FACTORY = (SAXTransformerFactory)TransformerFactory.newInstance();
+	private static String STYLESHEET = 
+		"<xsl:stylesheet version='1.0' xmlns:xsl='http://www.w3.org/1999/XSL/Transform'>"
+		+ "<xsl:template match='/'><count><xsl:value-of select='count(//para)'/></count></xsl:template>"
+		+ "</xsl:stylesheet>";
+
+	/** Branch which fails with the given Throwable at the first element */
+	private static class FailingHandler extends ForwardingHandler {
+		private final Throwable failure;
+		public FailingHandler(TransformerHandler target, Throwable failure) { 
+			super(target); 
+			this.failure = failure; 
+		}
+		@SuppressWarnings("unchecked")
+		private static <X extends Throwable> void raise(Throwable failure) throws X {
+			throw (X)failure;
+		}
+		@Override
+		public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+			FailingHandler.<RuntimeException>raise(failure);
+		}
+	}
+
+	/** Throwable which is neither an Exception nor an Error */
+	private static class Failure extends Throwable {
+		private static final long serialVersionUID = 1L;
+	}
+
+	private static TransformerHandler newCopy() throws TransformerConfigurationException {
+		TransformerHandler copy = TRANSFORMER_FACTORY.newTransformerHandler();
+		copy.setResult(new StreamResult(new StringWriter()));
+		return copy;
+	}
+
+	private static void writeDocument(TransformerWriter writer, int paras) throws XMLStreamException {
+		writer.writeStartDocument();
+		writer.writeStartElement("document");
+		for (int i = 0; i < paras; i++) {
+			writer.writeStartElement("para");
+			writer.writeAttribute("number", Integer.toString(i));
+			writer.writeCharacters("text");
+			writer.writeEndElement();
+		}
+		writer.writeEndElement();
+		writer.writeEndDocument();
+		writer.close();
+	}
+
+	private void testTee(ExecutorService executor) throws TransformerConfigurationException, XMLStreamException {
+		TransformerHandler copy = TRANSFORMER_FACTORY.newTransformerHandler();
+		StringWriter copy_buffer = new StringWriter();
+		copy.setResult(new StreamResult(copy_buffer));
+		TransformerHandler summary = TRANSFORMER_FACTORY.newTransformerHandler(TRANSFORMER_FACTORY.newTemplates(new StreamSource(new StringReader(STYLESHEET))));
+		StringWriter summary_buffer = new StringWriter();
+		summary.setResult(new StreamResult(summary_buffer));
+		writeDocument(executor == null ? new TeeWriter(copy, summary) : new TeeWriter(executor, copy, summary), 5000);
+		assertTrue(copy_buffer.toString().indexOf("<para number=\"4999\">text</para></document>") >= 0);
+		assertTrue(summary_buffer.toString().indexOf("<count>5000</count>") >= 0);
+	}
+
+	@Test
+	public void testSequential() throws TransformerConfigurationException, XMLStreamException {
+		testTee(null);
+	}
+
+	@Test
+	public void testParallel() throws TransformerConfigurationException, XMLStreamException {
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			testTee(executor);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testBranchRuntimeException() throws TransformerConfigurationException, XMLStreamException {
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		IllegalStateException failure = new IllegalStateException("broken");
+		try {
+			writeDocument(new TeeWriter(executor, newCopy(), new FailingHandler(newCopy(), failure)), 5000);
+			fail("Expected an exception");
+		} catch (XMLStreamException e) {
+			assertSame(failure, ((SAXException)e.getNestedException()).getException());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testBranchError() throws TransformerConfigurationException, XMLStreamException {
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		Error failure = new Error("broken");
+		try {
+			// More batches than a queue holds, so the producer blocks if the failed branch stops taking them
+			writeDocument(new TeeWriter(executor, newCopy(), new FailingHandler(newCopy(), failure)), 5000);
+			fail("Expected an error");
+		} catch (Error e) {
+			assertSame(failure, e);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testBranchThrowable() throws TransformerConfigurationException, XMLStreamException {
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		Failure failure = new Failure();
+		try {
+			writeDocument(new TeeWriter(executor, newCopy(), new FailingHandler(newCopy(), failure)), 10);
+			fail("Expected an exception");
+		} catch (XMLStreamException e) {
+			assertSame(failure, ((SAXException)e.getNestedException()).getException().getCause());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testProducerFailure() throws TransformerConfigurationException, XMLStreamException, InterruptedException, ExecutionException, TimeoutException {
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			TeeWriter writer = new TeeWriter(executor, newCopy(), newCopy());
+			try {
+				writer.writeStartDocument();
+				writer.writeStartElement("document");
+				writer.writeCharacters("text");
+				// The producer fails here, without ending the document
+			} finally {
+				writer.close();
+			}
+			// Both threads must have been released by the branches
+			CountDownLatch running = new CountDownLatch(2);
+			Callable<Boolean> task = () -> { running.countDown(); return running.await(5, TimeUnit.SECONDS); };
+			Future<Boolean> first = executor.submit(task);
+			Future<Boolean> second = executor.submit(task);
+			assertTrue(first.get(5, TimeUnit.SECONDS));
+			assertTrue(second.get(5, TimeUnit.SECONDS));
+			try {
+				writer.writeEndElement();
+				writer.writeEndDocument();
+				fail("Expected an exception");
+			} catch (XMLStreamException e) {
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
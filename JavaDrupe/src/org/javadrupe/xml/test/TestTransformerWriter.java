@@ -2,24 +2,56 @@ package org.javadrupe.xml.test;
 
 import static org.junit.Assert.*;
 
+import java.io.IOException;
+import java.io.StringReader;
 import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.stream.XMLStreamWriter;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.sax.SAXTransformerFactory;
 import javax.xml.transform.sax.TransformerHandler;
 import javax.xml.transform.stream.StreamResult;
+
+import org.javadrupe.collections.NameValuePair;
+import org.javadrupe.xml.FlightRecorderListener;
+import org.javadrupe.xml.ForwardingHandler;
+import org.javadrupe.xml.MetricsRegistry;
+import org.javadrupe.xml.NameTable;
 import org.javadrupe.xml.TransformerWriter;
+import org.javadrupe.xml.WriterMetrics;
 
 import org.junit.Test;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
 
 public class TestTransformerWriter {
 
 	private static SAXTransformerFactory TRANSFORMER_FACTORY = (SAXTransformerFactory)TransformerFactory.newInstance();
 	private static String XML_PREAMBLE="<?xml version=\"1.0\" encoding=\"UTF-8\"?>";
 	private static String TEST_NAMESPACE="urn:org.javadrupe.xml.test";
+	
+	private static class PrefixMappingRecorder extends ForwardingHandler {
+		public final List<String> events = new ArrayList<String>();
+		public PrefixMappingRecorder(TransformerHandler target) { super(target); }
+		@Override
+		public void startPrefixMapping(String prefix, String uri) throws SAXException { events.add("start " + prefix); super.startPrefixMapping(prefix, uri); }
+		@Override
+		public void endPrefixMapping(String prefix) throws SAXException { events.add("end " + prefix); super.endPrefixMapping(prefix); }
+		@Override
+		public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException { events.add("<" + qName); super.startElement(uri, localName, qName, atts); }
+		@Override
+		public void endElement(String uri, String localName, String qName) throws SAXException { events.add(qName + ">"); super.endElement(uri, localName, qName); }
+	}
 
 	@Test
 	public void testStartEndDocument() throws TransformerConfigurationException, XMLStreamException {
@@ -111,5 +143,196 @@ public class TestTransformerWriter {
 		assertTrue(document.indexOf("<document attr1=\"value\">") >= 0);
 		assertTrue(document.indexOf("<para attr3=\"value\"/>") >= 0);
 	}
-
+	
+	@Test
+	public void testPrefixMappingSentOnceBeforeStartElement() throws TransformerConfigurationException, XMLStreamException {
+		TransformerHandler handler = TRANSFORMER_FACTORY.newTransformerHandler();
+		StringWriter buffer = new StringWriter();
+		handler.setResult(new StreamResult(buffer));
+		PrefixMappingRecorder recorder = new PrefixMappingRecorder(handler);
+		TransformerWriter writer = new TransformerWriter(recorder);
+		writer.writeStartDocument();
+		writer.writeStartElement("test", "document", TEST_NAMESPACE);
+		writer.writeNamespace("test", TEST_NAMESPACE);
+		writer.writeStartElement("para");
+		writer.writeEndElement();
+		writer.writeEndElement();
+		writer.writeEndDocument();
+		writer.close();
+		// One startPrefixMapping, balanced by one endPrefixMapping
+		assertEquals(Arrays.asList("start test", "<test:document", "<para", "para>", "test:document>", "end test"), recorder.events);
+		assertTrue(buffer.toString().indexOf("<test:document xmlns:test=\"" + TEST_NAMESPACE + "\"><para/></test:document>") >= 0);
+	}
+	
+	@Test
+	public void testEmptyElementWithBoundNamespace() throws TransformerConfigurationException, XMLStreamException {
+		TransformerHandler handler = TRANSFORMER_FACTORY.newTransformerHandler();
+		StringWriter buffer = new StringWriter();
+		handler.setResult(new StreamResult(buffer));
+		TransformerWriter writer = new TransformerWriter(handler);
+		writer.writeStartDocument();
+		writer.writeStartElement("test", "document", TEST_NAMESPACE);
+		writer.writeNamespace("test", TEST_NAMESPACE);
+		writer.writeEmptyElement(TEST_NAMESPACE, "para");
+		writer.writeEndElement();
+		writer.writeEndDocument();
+		writer.close();	
+		String document = buffer.toString();
+		assertTrue(document.indexOf("<test:para/>") >= 0);
+	}
+	
+	@Test
+	public void testWriteAttributes() throws TransformerConfigurationException, XMLStreamException {
+		TransformerHandler handler = TRANSFORMER_FACTORY.newTransformerHandler();
+		StringWriter buffer = new StringWriter();
+		StreamResult result = new StreamResult(buffer);
+		handler.setResult(result);
+		TransformerWriter writer = new TransformerWriter(handler);
+		writer.writeStartDocument();
+		writer.writeStartElement(TEST_NAMESPACE,"document");
+		writer.writeNamespace("test", TEST_NAMESPACE);
+		writer.writeAttributes(Arrays.<NameValuePair<?>>asList(
+			NameValuePair.of("count", 3), 
+			NameValuePair.of("missing", null), 
+			NameValuePair.of("{" + TEST_NAMESPACE + "}flag", true)));
+		writer.writeEndElement();
+		writer.writeEndDocument();
+		writer.close();	
+		String document = buffer.toString();
+		assertTrue(document.indexOf("count=\"3\"") >= 0);
+		assertTrue(document.indexOf("test:flag=\"true\"") >= 0);
+		assertTrue(document.indexOf("missing") < 0);
+	}
+	
+	@Test
+	public void testWriteAttributesAcrossElements() throws TransformerConfigurationException, XMLStreamException {
+		TransformerHandler handler = TRANSFORMER_FACTORY.newTransformerHandler();
+		StringWriter buffer = new StringWriter();
+		handler.setResult(new StreamResult(buffer));
+		TransformerWriter writer = new TransformerWriter(handler);
+		String flag = "{" + TEST_NAMESPACE + "}flag";
+		writer.writeStartDocument();
+		writer.writeStartElement("document");
+		writer.writeNamespace("a", TEST_NAMESPACE);
+		writer.writeStartElement("para");
+		writer.writeAttributes(Arrays.<NameValuePair<?>>asList(NameValuePair.of(flag, 1)));
+		writer.writeEndElement();
+		writer.writeStartElement("para");
+		writer.writeNamespace("b", TEST_NAMESPACE);
+		writer.writeAttributes(Arrays.<NameValuePair<?>>asList(NameValuePair.of(flag, 2)));
+		writer.writeEndElement();
+		writer.writeStartElement("para");
+		writer.writeAttributes(Arrays.<NameValuePair<?>>asList(NameValuePair.of(flag, 3)));
+		writer.writeEndElement();
+		writer.writeEndElement();
+		writer.writeEndDocument();
+		writer.close();	
+		String document = buffer.toString();
+		assertTrue(document.indexOf("<para a:flag=\"1\"/>") >= 0);
+		assertTrue(document.indexOf("b:flag=\"2\"") >= 0);
+		assertTrue(document.indexOf("<para a:flag=\"3\"/>") >= 0);
+	}
+	
+	@Test
+	public void testMetrics() throws TransformerConfigurationException, XMLStreamException {
+		TransformerHandler handler = TRANSFORMER_FACTORY.newTransformerHandler();
+		handler.setResult(new StreamResult(new StringWriter()));
+		MetricsRegistry registry = new MetricsRegistry(1);
+		TransformerWriter writer = new TransformerWriter(handler, new NameTable(), registry);
+		writer.writeStartDocument();
+		writer.writeStartElement(TEST_NAMESPACE,"document");
+		writer.writeNamespace("test", TEST_NAMESPACE);
+		writer.writeAttribute("attr1","value");
+		writer.writeStartElement("para");
+		writer.writeCharacters("text");
+		writer.writeEndElement();
+		writer.writeEndElement();
+		writer.writeEndDocument();
+		writer.close();
+		WriterMetrics metrics = writer.getMetrics();
+		assertEquals(2, metrics.getElements());
+		assertEquals(1, metrics.getAttributes());
+		assertEquals(4, metrics.getCharacters());
+		assertEquals(1, metrics.getNamespaceDeclarations());
+		assertEquals(2, metrics.getMaxDepth());
+		assertEquals(1, registry.getDocuments());
+		assertEquals(2, registry.getElements());
+		// Every event is sampled: start and end of document, prefix mapping and element, two elements, and text
+		assertEquals(9, Arrays.stream(registry.getHandlerLatencyHistogram()).sum());
+	}
+	
+	@Test
+	public void testFlightRecorderListener() throws TransformerConfigurationException, XMLStreamException, ReflectiveOperationException, IOException {
+		// The jdk.jfr API is not part of Java 1.8, so the recording is driven through reflection
+		if (!FlightRecorderListener.isAvailable()) return;
+		MetricsRegistry registry = new MetricsRegistry(1);
+		registry.addListener(new FlightRecorderListener());
+		Class<?> recording_type = Class.forName("jdk.jfr.Recording");
+		Object recording = recording_type.getConstructor().newInstance();
+		recording_type.getMethod("enable", String.class).invoke(recording, FlightRecorderListener.EVENT_NAME);
+		recording_type.getMethod("start").invoke(recording);
+		TransformerHandler handler = TRANSFORMER_FACTORY.newTransformerHandler();
+		handler.setResult(new StreamResult(new StringWriter()));
+		TransformerWriter writer = new TransformerWriter(handler, new NameTable(), registry);
+		writer.writeStartDocument();
+		writer.writeStartElement("document");
+		writer.writeStartElement("para");
+		writer.writeEndElement();
+		writer.writeEndElement();
+		writer.writeEndDocument();
+		writer.close();
+		recording_type.getMethod("stop").invoke(recording);
+		Path file = Files.createTempFile("metrics", ".jfr");
+		try {
+			recording_type.getMethod("dump", Path.class).invoke(recording, file);
+			List<?> events = (List<?>)Class.forName("jdk.jfr.consumer.RecordingFile").getMethod("readAllEvents", Path.class).invoke(null, file);
+			int found = 0;
+			for (Object event : events) {
+				Object type = event.getClass().getMethod("getEventType").invoke(event);
+				if (!FlightRecorderListener.EVENT_NAME.equals(type.getClass().getMethod("getName").invoke(type))) continue;
+				assertEquals(2L, event.getClass().getMethod("getLong", String.class).invoke(event, "elements"));
+				found++;
+			}
+			assertEquals(1, found);
+		} finally {
+			recording_type.getMethod("close").invoke(recording);
+			Files.delete(file);
+		}
+	}
+	
+	@Test
+	public void testCopyFrom() throws TransformerConfigurationException, XMLStreamException {
+		String input = "<test:document xmlns:test=\"urn:org.javadrupe.xml.test\" test:id=\"1\"><para a=\"b\">text<!--comment--></para></test:document>";
+		XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(new StringReader(input));
+		TransformerHandler handler = TRANSFORMER_FACTORY.newTransformerHandler();
+		StringWriter buffer = new StringWriter();
+		handler.setResult(new StreamResult(buffer));
+		TransformerWriter writer = new TransformerWriter(handler);
+		writer.copyFrom(reader);
+		writer.close();
+		String document = buffer.toString();
+		assertTrue(document.indexOf(XML_PREAMBLE) >= 0);
+		assertTrue(document.indexOf(input) >= 0);
+	}
+	
+	@Test
+	public void testCopySubtree() throws TransformerConfigurationException, XMLStreamException {
+		String input = "<document><skip/><para a=\"b\">text<b>bold</b></para><skip/></document>";
+		XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(new StringReader(input));
+		TransformerHandler handler = TRANSFORMER_FACTORY.newTransformerHandler();
+		StringWriter buffer = new StringWriter();
+		handler.setResult(new StreamResult(buffer));
+		TransformerWriter writer = new TransformerWriter(handler);
+		writer.writeStartDocument();
+		writer.writeStartElement("copy");
+		while (reader.next() != XMLStreamConstants.START_ELEMENT || !reader.getLocalName().equals("para"));
+		writer.copySubtree(reader);
+		assertEquals(XMLStreamConstants.END_ELEMENT, reader.getEventType());
+		assertEquals("para", reader.getLocalName());
+		writer.writeEndElement();
+		writer.writeEndDocument();
+		writer.close();
+		String document = buffer.toString();
+		assertTrue(document.indexOf("<copy><para a=\"b\">text<b>bold</b></para></copy>") >= 0);
+	}
 }
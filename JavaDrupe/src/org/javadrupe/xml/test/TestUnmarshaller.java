@@ -0,0 +1,128 @@
+package org.javadrupe.xml.test;
+
+import static org.junit.Assert.*;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.stream.Collectors;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.javadrupe.xml.Unmarshaller;
+
+import org.junit.Test;
+
+public class TestUnmarshaller {
+
+	private static XMLInputFactory INPUT_FACTORY = XMLInputFactory.newInstance();
+
+	public static class Point {
+		public double x;
+		private String label;
+		public String getLabel() { return label; }
+		public void setLabel(String label) { this.label = label; }
+	}
+
+	public static class Shape {
+		public String name;
+		public List<Point> points;
+		public Object size;
+	}
+
+	public static class Blob {
+		public byte[] data;
+		public Object any;
+	}
+
+	public static class Schedule {
+		public GregorianCalendar when;
+		public ArrayList<Point> points;
+		public SortedSet<Integer> slots;
+	}
+
+	public static class Untyped {
+		public Map<String,String> values;
+		public java.sql.Timestamp created;
+	}
+
+	private static XMLStreamReader read(String xml) throws XMLStreamException {
+		return INPUT_FACTORY.createXMLStreamReader(new StringReader(xml));
+	}
+
+	@Test
+	public void testSimpleBean() throws XMLStreamException {
+		Point point = new Unmarshaller().unmarshal(read("<point><label>a</label><x>1.5</x><ignored><x>2</x></ignored></point>"), Point.class);
+		assertEquals("a", point.getLabel());
+		assertEquals(1.5, point.x, 0);
+	}
+
+	@Test
+	public void testNestedBean() throws XMLStreamException {
+		String xml = "<shape xmlns:xsi='http://www.w3.org/2001/XMLSchema-instance' xmlns:xs='http://www.w3.org/2001/XMLSchema'>"
+			+ "<name>triangle</name><points><x>1.0</x></points><points><x>2.0</x></points><size xsi:type='xs:int'>3</size></shape>";
+		Shape shape = new Unmarshaller().unmarshal(read(xml), Shape.class);
+		assertEquals("triangle", shape.name);
+		assertEquals(2, shape.points.size());
+		assertEquals(2.0, shape.points.get(1).x, 0);
+		assertEquals(3, shape.size);
+	}
+
+	@Test
+	public void testStream() throws XMLStreamException {
+		String xml = "<points><header/><point><x>1</x></point><point><x>2</x></point><point><x>3</x></point></points>";
+		List<Double> values = new Unmarshaller().stream(read(xml), new QName("point"), Point.class)
+			.map(point -> point.x)
+			.collect(Collectors.toList());
+		assertEquals(3, values.size());
+		assertEquals(3.0, values.get(2), 0);
+	}
+
+	@Test
+	public void testHexBinary() throws XMLStreamException {
+		String xml = "<blob xmlns:xsi='http://www.w3.org/2001/XMLSchema-instance' xmlns:xs='http://www.w3.org/2001/XMLSchema'>"
+			+ "<data xsi:type='xs:hexBinary'>0fa0</data><any xsi:type='xs:hexBinary'>ff</any></blob>";
+		Blob blob = new Unmarshaller().unmarshal(read(xml), Blob.class);
+		assertArrayEquals(new byte[] { 0x0F, (byte)0xA0 }, blob.data);
+		assertArrayEquals(new byte[] { (byte)0xFF }, (byte[])blob.any);
+	}
+
+	@Test
+	public void testSubclassesAndConcreteCollections() throws XMLStreamException {
+		String xml = "<schedule><when>1970-01-01T00:00:00Z</when><points><x>1</x></points><points><x>2</x></points>"
+			+ "<slots>3</slots><slots>1</slots></schedule>";
+		Schedule schedule = new Unmarshaller().unmarshal(read(xml), Schedule.class);
+		assertEquals(0, schedule.when.getTimeInMillis());
+		assertEquals(2, schedule.points.size());
+		assertEquals(2.0, schedule.points.get(1).x, 0);
+		assertEquals(1, (int)schedule.slots.first());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMapRejected() throws XMLStreamException {
+		new Unmarshaller().unmarshal(read("<untyped><values><a>1</a></values></untyped>"), Untyped.class);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnconvertibleSimpleTypeRejected() throws XMLStreamException {
+		new Unmarshaller().unmarshal(read("<untyped><created>1970-01-01T00:00:00Z</created></untyped>"), Untyped.class);
+	}
+
+	@Test
+	public void testStreamFromFirstRecord() throws XMLStreamException {
+		XMLStreamReader reader = read("<points><point><x>1</x></point><point><x>2</x></point></points>");
+		reader.nextTag();
+		reader.nextTag();
+		List<Double> values = new Unmarshaller().stream(reader, new QName("point"), Point.class)
+			.map(point -> point.x)
+			.collect(Collectors.toList());
+		assertEquals(2, values.size());
+		assertEquals(1.0, values.get(0), 0);
+	}
+}
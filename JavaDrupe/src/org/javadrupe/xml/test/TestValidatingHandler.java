@@ -0,0 +1,112 @@
+package org.javadrupe.xml.test;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.validation.Schema;
+
+import org.javadrupe.xml.MetricsRegistry;
+import org.javadrupe.xml.NameTable;
+import org.javadrupe.xml.SchemaCache;
+import org.javadrupe.xml.TransformerWriter;
+import org.javadrupe.xml.ValidatingHandler;
+import org.javadrupe.xml.ValidationError;
+import org.javadrupe.xml.WriterMetrics;
+
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+public class TestValidatingHandler {
+
+	private static SAXTransformerFactory TRANSFORMER_FACTORY = (SAXTransformerFactory)TransformerFactory.newInstance();
+	private static String SCHEMA =
+		"<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'>"
+		+ "<xs:element name='order'><xs:complexType><xs:sequence>"
+		+ "<xs:element name='line' maxOccurs='unbounded'><xs:complexType><xs:sequence>"
+		+ "<xs:element name='price' type='xs:decimal'/>"
+		+ "</xs:sequence></xs:complexType></xs:element>"
+		+ "</xs:sequence></xs:complexType></xs:element>"
+		+ "</xs:schema>";
+
+	private static Schema compile(SchemaCache cache) throws IOException, SAXException {
+		Path file = Files.createTempFile("schema", ".xsd");
+		try {
+			Files.write(file, SCHEMA.getBytes(StandardCharsets.UTF_8));
+			Schema schema = cache.getSchema(file.toUri().toString());
+			assertSame(schema, cache.getSchema(file.toUri().toString()));
+			return schema;
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	private static void writeOrder(TransformerWriter writer, String... prices) throws XMLStreamException {
+		writer.writeStartDocument();
+		writer.writeStartElement("order");
+		for (String price : prices) {
+			writer.writeStartElement("line");
+			writer.writeStartElement("price");
+			writer.writeCharacters(price);
+			writer.writeEndElement();
+			writer.writeEndElement();
+		}
+		writer.writeEndElement();
+		writer.writeEndDocument();
+		writer.close();
+	}
+
+	@Test
+	public void testCollect() throws TransformerConfigurationException, XMLStreamException, IOException, SAXException {
+		Schema schema = compile(new SchemaCache());
+		TransformerHandler handler = TRANSFORMER_FACTORY.newTransformerHandler();
+		StringWriter buffer = new StringWriter();
+		handler.setResult(new StreamResult(buffer));
+		TransformerWriter writer = new TransformerWriter(handler, schema, ValidatingHandler.Mode.COLLECT);
+		writeOrder(writer, "1.50", "free", "2");
+		List<ValidationError> errors = writer.getValidationErrors();
+		assertFalse(errors.isEmpty());
+		assertEquals("/order/line/price", errors.get(0).getPath());
+		assertTrue(buffer.toString().indexOf("<line><price>free</price></line>") >= 0);
+		writeOrder(writer, "1.50");
+		assertTrue(writer.getValidationErrors().isEmpty());
+	}
+
+	@Test(expected = XMLStreamException.class)
+	public void testFailFast() throws TransformerConfigurationException, XMLStreamException, IOException, SAXException {
+		Schema schema = compile(new SchemaCache());
+		TransformerHandler handler = TRANSFORMER_FACTORY.newTransformerHandler();
+		handler.setResult(new StreamResult(new StringWriter()));
+		writeOrder(new TransformerWriter(handler, schema, ValidatingHandler.Mode.FAIL_FAST));
+	}
+
+	@Test
+	public void testWithMetricsAndSharedNames() throws TransformerConfigurationException, XMLStreamException, IOException, SAXException {
+		Schema schema = compile(new SchemaCache());
+		NameTable names = new NameTable();
+		MetricsRegistry registry = new MetricsRegistry(1);
+		TransformerHandler handler = TRANSFORMER_FACTORY.newTransformerHandler();
+		StringWriter buffer = new StringWriter();
+		handler.setResult(new StreamResult(buffer));
+		TransformerWriter writer = new TransformerWriter(handler, names, registry, schema, ValidatingHandler.Mode.COLLECT);
+		writeOrder(writer, "1.50", "free");
+		assertFalse(writer.getValidationErrors().isEmpty());
+		assertEquals("/order/line/price", writer.getValidationErrors().get(0).getPath());
+		WriterMetrics metrics = writer.getMetrics();
+		assertEquals(5, metrics.getElements());
+		assertEquals(3, metrics.getMaxDepth());
+		assertEquals(1, registry.getDocuments());
+		assertTrue(buffer.toString().indexOf("<line><price>free</price></line>") >= 0);
+	}
+}